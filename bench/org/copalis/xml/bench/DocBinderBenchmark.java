@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.copalis.xml.DocBinder;
+import org.copalis.xml.samples.OrderSchema;
+import org.copalis.xml.samples.PeopleSchema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Document generation through DocBinder proxies or generated writers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DocBinderBenchmark {
+	
+	@Param({"1", "1000", "1000000"})
+	int records;
+	
+	@Benchmark
+	public Document people() {
+		Document doc = Documents.document();
+		Documents.people(DocBinder.bind(PeopleSchema.class, doc), records);
+		return doc;
+	}
+	
+	@Benchmark
+	public Document orders() {
+		Document doc = Documents.document();
+		Documents.orders(DocBinder.bind(OrderSchema.class, doc), records);
+		return doc;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.bench;
+
+import static org.copalis.xml.samples.OrderSchema.Currency.USD;
+
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.copalis.xml.StreamBinder;
+import org.copalis.xml.samples.OrderSchema;
+import org.copalis.xml.samples.PeopleSchema;
+import org.copalis.xml.samples.util.DocumentModel;
+import org.w3c.dom.Document;
+import org.xml.sax.XMLReader;
+
+/**
+ * The documents the benchmarks write and read, scaled to a number of records
+ */
+final class Documents {
+	
+	private Documents() {}
+	
+	static void people(PeopleSchema s, int records) {
+		PeopleSchema.People people = s.people();
+		for (int i = 0; i < records; i++) {
+			people._(s.person().first("Giles").last("Burgess").age(40))
+				._(s.person("Name unknown"));
+		}
+		s._(people);
+	}
+	
+	static void orders(OrderSchema s, int records) {
+		OrderSchema.Orders orders = s.orders();
+		for (int i = 0; i < records; i++) {
+			orders._(s.order()
+				._(s.customer().id("c32").$("Chez Fred"))
+				._(s.product()
+					._(s.name("Birdsong Clock"))
+					._(s.sku("244"))
+					._(s.quantity(12))
+					._(s.price().currency(USD).$("21.95")))
+				._(s.shipTo()
+					._(s.street("135 Airline Highway"))
+					._(s.city("Narraganet"))
+					._(s.state("RI"))
+					._(s.zip("02882")))
+				._(s.subtotal().currency(USD).$("263.40"))
+				._(s.tax().rate("7.0").currency(USD).$("18.44"))
+				._(s.shipping().method("USPS").currency(USD).$("8.95"))
+				._(s.total().currency(USD).$("290.79")));
+		}
+		s._(orders);
+	}
+	
+	static byte[] peopleXml(int records) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		people(StreamBinder.bind(PeopleSchema.class, out), records);
+		return out.toByteArray();
+	}
+	
+	static byte[] ordersXml(int records) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		orders(StreamBinder.bind(OrderSchema.class, out), records);
+		return out.toByteArray();
+	}
+	
+	static Document document() {
+		return DocumentModel.create();
+	}
+	
+	static XMLReader parser() throws Exception {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newSAXParser().getXMLReader();
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.bench;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.copalis.xml.Schema;
+import org.copalis.xml.samples.OrderSchema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Schema lookups made for every element, in isolation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SchemaBenchmark {
+	
+	Schema<OrderSchema> schema;
+	Schema.NodeType order, customer;
+	Method method;
+	int symbol;
+	String name;
+	
+	@Setup
+	public void setup() throws Exception {
+		schema = Schema.of(OrderSchema.class);
+		order = schema.node(OrderSchema.Order.class);
+		customer = schema.node(OrderSchema.Order.Customer.class);
+		method = OrderSchema.Order.Customer.class.getMethod("id", String.class);
+		name = "customer";
+		symbol = schema.symbols().id(name);
+	}
+	
+	@Benchmark
+	public Schema<OrderSchema> of() {
+		return Schema.of(OrderSchema.class);
+	}
+	
+	@Benchmark
+	public Schema.Binding binding() {
+		return schema.binding(method);
+	}
+	
+	@Benchmark
+	public int symbol() {
+		return schema.symbols().id(name);
+	}
+	
+	@Benchmark
+	public Schema.Binding factoryByName() {
+		return schema.factory(name);
+	}
+	
+	@Benchmark
+	public Schema.Binding factoryBySymbol() {
+		return schema.factory(symbol);
+	}
+	
+	@Benchmark
+	public Schema.Binding textNodeFactory() {
+		return schema.textNodeFactory(name);
+	}
+	
+	@Benchmark
+	public Schema.Binding attribute() {
+		return customer.attribute("id");
+	}
+	
+	@Benchmark
+	public Schema.Binding child() {
+		return order.child(OrderSchema.Order.Customer.class);
+	}
+	
+	@Benchmark
+	public Method getFactoryMethod() throws Exception {
+		return schema.getFactoryMethod(name);
+	}
+	
+	@Benchmark
+	public Method getChildMethod() throws Exception {
+		return schema.getChildMethod(OrderSchema.Order.class, OrderSchema.Order.Customer.class);
+	}
+}
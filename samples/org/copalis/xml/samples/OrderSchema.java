@@ -15,12 +15,16 @@
  */
 package org.copalis.xml.samples;
 
+import org.copalis.xml.Schema;
+
+@Schema.Generate
 public interface OrderSchema {
 	
 	public enum Currency {USD}
 	
-	void _(Order root);
+	void _(Root root);
 	
+	Orders orders();
 	Order order();
 	Order.Customer customer();
 	
@@ -43,7 +47,13 @@ public interface OrderSchema {
 	
 	Order.Shipping shipping();
 	
-	interface Order {
+	interface Root {}
+	
+	interface Orders extends Root {
+		Orders _(Order order);
+	}
+	
+	interface Order extends Root {
 		interface OrderChild {}
 		
 		Order _(OrderChild node);
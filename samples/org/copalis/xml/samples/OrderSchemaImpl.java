@@ -28,17 +28,30 @@ import org.copalis.xml.samples.OrderSchema.Order.Total;
 public class OrderSchemaImpl implements OrderSchema {
 
 	AnOrder root;
+	AnOrders orders;
 	
-	public void _(Order root) {
-		this.root = (AnOrder) root;
+	public void _(Root root) {
+		if (root instanceof AnOrders) {
+			this.orders = (AnOrders) root;
+		} else {
+			this.root = (AnOrder) root;
+		}
 	}
 	
 	public void copy(OrderSchema schema) {
-		schema._(root.copy(schema));
+		if (orders != null) {
+			schema._(orders.copy(schema));
+		} else {
+			schema._(root.copy(schema));
+		}
 	}
 	
 	// factory methods
 	
+	public Orders orders() {
+		return new AnOrders();
+	}
+	
 	public Order order() {
 		return new AnOrder();
 	}
@@ -149,11 +162,30 @@ public class OrderSchemaImpl implements OrderSchema {
 	}
 	
 	@Override public String toString() {
-		return root.toString();
+		return orders != null? orders.toString() : root.toString();
 	}
 	
 	//// classes
 	
+	static class AnOrders implements Orders {
+		List<AnOrder> orders = new LinkedList<AnOrder>();
+		
+		public Orders _(Order order) {
+			orders.add((AnOrder) order);
+			return this;
+		}
+		
+		public Orders copy(OrderSchema schema) {
+			Orders copy = schema.orders();
+			for (AnOrder order : orders) copy._(order.copy(schema));
+			return copy;
+		}
+		
+		@Override public String toString() {
+			return orders.toString();
+		}
+	}
+	
 	static class AnOrder implements Order {
 		List<AChild> children = new LinkedList<AChild>();
 
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.copalis.xml.SAXHandler;
+import org.copalis.xml.StreamBinder;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reports the bytes allocated per element when SAXHandler parses a flat feed of
+ * person records into an implementation that allocates nothing,
+ * less the allocation of the parser itself with a ContentHandler that only
+ * reads the attribute values
+ */
+public class TestAllocation {
+	
+	/**
+	 * A PeopleSchema implementation that returns itself from every method
+	 */
+	static class NullPeople implements PeopleSchema, PeopleSchema.People, PeopleSchema.Person.Attrs {
+		public void _(People people) {}
+		public People people() { return this; }
+		public Attrs person() { return this; }
+		public Person person(String text) { return this; }
+		public People _(Person person) { return this; }
+		public Attrs first(String name) { return this; }
+		public Attrs last(String name) { return this; }
+		public Attrs age(int age) { return this; }
+		public Person $(String text) { return this; }
+	}
+	
+	/**
+	 * Reads every attribute value, which is the least any handler must do
+	 */
+	static class Baseline extends DefaultHandler {
+		int length;
+		
+		@Override public void startElement(String uri, String local, String name, Attributes attrs) {
+			for (int i = 0; i < attrs.getLength(); i++) {
+				length += attrs.getValue(i).length();
+			}
+		}
+	}
+	
+	static byte[] feed(int count) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PeopleSchema s = StreamBinder.bind(PeopleSchema.class, out);
+		PeopleSchema.People people = s.people();
+		for (int i = 0; i < count; i++) {
+			people._(s.person().first("Giles").last("Burgess").age(i % 100));
+		}
+		s._(people);
+		return out.toByteArray();
+	}
+	
+	static long allocated() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	static long parse(XMLReader parser, DefaultHandler handler, byte[] xml) throws Exception {
+		parser.setContentHandler(handler);
+		long start = allocated();
+		parser.parse(new InputSource(new ByteArrayInputStream(xml)));
+		return allocated() - start;
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 1000000;
+		byte[] xml = feed(count);
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		XMLReader parser = factory.newSAXParser().getXMLReader();
+		
+		for (int round = 0; round < 5; round++) {
+			long parsing = parse(parser, new Baseline(), xml);
+			long handling = parse(parser, new SAXHandler(PeopleSchema.class, new NullPeople()), xml);
+			System.out.printf("%d elements: parser %.1f bytes/element, SAXHandler %.1f bytes/element%n",
+					count, (double) parsing / count, (double) (handling - parsing) / count);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.copalis.xml.BinaryFormat;
+import org.copalis.xml.StreamBinder;
+
+/**
+ * Encodes a feed of orders in the binary format, checks that decoding it gives the same
+ * result as parsing the equivalent XML, and compares the sizes and decoding times
+ */
+public class TestBinaryFormat {
+
+	static OrderSchemaImpl decode(byte[] bin) throws Exception {
+		OrderSchemaImpl impl = new OrderSchemaImpl();
+		BinaryFormat.read(OrderSchema.class, impl, new ByteArrayInputStream(bin));
+		return impl;
+	}
+
+	static void corrupt(String what, byte... bin) throws Exception {
+		try {
+			decode(bin);
+			System.out.println(what + " ACCEPTED");
+		} catch (IOException e) {
+			System.out.println(what + " rejected: " + e.getMessage());
+		}
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 100000;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, out), count);
+		byte[] xml = out.toByteArray();
+		out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrders(BinaryFormat.bind(OrderSchema.class, out), count);
+		byte[] bin = out.toByteArray();
+		System.out.printf("%d orders: XML %dK, binary %dK%n", count, xml.length / 1024, bin.length / 1024);
+
+		System.out.println(TestStaxReader.sax(xml).toString().equals(decode(bin).toString())? "identical" : "DIFFERENT");
+		out = new ByteArrayOutputStream();
+		BinaryFormat.read(OrderSchema.class, StreamBinder.bind(OrderSchema.class, out), new ByteArrayInputStream(bin));
+		System.out.println(Arrays.equals(xml, out.toByteArray())? "XML identical" : "XML DIFFERENT");
+
+		// the varint 0x7FFFFFFF
+		byte more = (byte) 0xFF, last = 0x07;
+		corrupt("symbol count", (byte) 'C', (byte) 'X', (byte) 'B', (byte) 1, more, more, more, more, last);
+		corrupt("string length", (byte) 'C', (byte) 'X', (byte) 'B', (byte) 1, (byte) 1, more, more, more, more, last, (byte) 'a');
+		corrupt("truncated", Arrays.copyOf(bin, bin.length / 2));
+
+		for (int round = 0; round < 10; round++) {
+			long start = System.nanoTime();
+			TestStaxReader.sax(xml);
+			long sax = System.nanoTime();
+			decode(bin);
+			long binary = System.nanoTime();
+			System.out.printf("SAX %dms, binary %dms%n", (sax - start) / 1000000, (binary - sax) / 1000000);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.copalis.xml.CompactTree;
+import org.copalis.xml.DocBinder;
+import org.copalis.xml.StreamBinder;
+import org.copalis.xml.samples.util.DocumentModel;
+import org.w3c.dom.Document;
+
+/**
+ * Builds the same feed of orders as a DOM Document and as a CompactTree,
+ * compares the heap they use, and replays the tree into schema implementations
+ */
+public class TestCompactTree {
+
+	static long used() {
+		for (int i = 0; i < 3; i++) System.gc();
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 20000;
+
+		long before = used();
+		Document doc = DocumentModel.create();
+		TestOrderSchema.createOrders(DocBinder.bind(OrderSchema.class, doc), count);
+		long dom = used() - before;
+
+		before = used();
+		CompactTree<OrderSchema> tree = new CompactTree<OrderSchema>(OrderSchema.class);
+		TestOrderSchema.createOrders(DocBinder.bind(tree), count);
+		long compact = used() - before;
+		doc.getNodeName(); // keeps the document reachable until the tree has been measured
+
+		System.out.printf("%d orders: DOM %dK, compact tree %dK (%d nodes), %.1f%%%n", count,
+				dom / 1024, compact / 1024, tree.size(), 100.0 * compact / dom);
+
+		OrderSchemaImpl expected = new OrderSchemaImpl();
+		TestOrderSchema.createOrders(expected, count);
+		OrderSchemaImpl replayed = new OrderSchemaImpl();
+		tree.replay(replayed);
+		System.out.println("replayed " + (expected.toString().equals(replayed.toString())? "identical" : "DIFFERENT"));
+
+		ByteArrayOutputStream direct = new ByteArrayOutputStream();
+		TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, direct), count);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		tree.replay(StreamBinder.bind(OrderSchema.class, out));
+		System.out.println("streamed " + (Arrays.equals(direct.toByteArray(), out.toByteArray())? "identical" : "DIFFERENT"));
+
+		CompactTree<PeopleSchema> people = new CompactTree<PeopleSchema>(PeopleSchema.class);
+		TestDocBinder.write(DocBinder.bind(people));
+		PeopleSchemaImpl impl = new PeopleSchemaImpl();
+		people.replay(impl);
+		impl.print();
+	}
+}
@@ -22,7 +22,7 @@ import org.w3c.dom.Document;
 
 public class TestDocBinder {
 
-	private static void write(PeopleSchema s) {
+	static void write(PeopleSchema s) {
 		s._(s.people()
 			._(s.person().first("Giles").last("Burgess").age(40))
 			._(s.person("Name unknown"))
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.copalis.xml.SAXHandler;
+import org.copalis.xml.StreamBinder;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Parses a large order document with SAXHandler while Java Flight Recorder records
+ * the construction of every exception, and fails if any were created.
+ * A smaller document is parsed first under another recording, so that classes loaded
+ * and linked on first use, including those of the recorder itself, are not counted.
+ * Requires a JDK with JFR (11 or later)
+ */
+public class TestExceptions {
+
+	static long parse(XMLReader parser, byte[] xml) throws Exception {
+		long start = System.nanoTime();
+		parser.setContentHandler(new SAXHandler(OrderSchema.class, new OrderSchemaImpl()));
+		parser.parse(new InputSource(new ByteArrayInputStream(xml)));
+		return System.nanoTime() - start;
+	}
+
+	static byte[] orders(int count) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, out), count);
+		return out.toByteArray();
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 100000;
+		byte[] xml = orders(count);
+
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		XMLReader parser = factory.newSAXParser().getXMLReader();
+
+		Recording warmup = new Recording();
+		warmup.enable("jdk.JavaExceptionThrow");
+		warmup.enable("jdk.JavaErrorThrow");
+		warmup.start();
+		parse(parser, orders(1000));
+		warmup.close();
+
+		Recording recording = new Recording();
+		recording.enable("jdk.JavaExceptionThrow");
+		recording.enable("jdk.JavaErrorThrow");
+		recording.start();
+		long time = parse(parser, xml);
+		recording.stop();
+
+		File file = File.createTempFile("exceptions", ".jfr");
+		int exceptions = 0;
+		try {
+			recording.dump(file.toPath());
+			for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+				if (!event.getEventType().getName().startsWith("jdk.Java")) continue;
+				if (exceptions++ == 0) {
+					System.out.println("first: " + event.getClass("thrownClass").getName()
+							+ ": " + event.getString("message"));
+				}
+			}
+			System.out.printf("%d orders parsed in %d ms, %d exceptions created%n",
+					count, time / 1000000, exceptions);
+		} finally {
+			recording.close();
+			file.delete();
+		}
+		if (exceptions != 0) {
+			throw new AssertionError(exceptions + " exceptions were created after warm-up");
+		}
+	}
+}
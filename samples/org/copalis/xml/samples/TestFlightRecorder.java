@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.copalis.xml.DocBinder;
+import org.copalis.xml.SAXHandler;
+import org.copalis.xml.Serializer;
+import org.copalis.xml.StaxReader;
+import org.copalis.xml.StreamBinder;
+import org.copalis.xml.Utf8Scanner;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Records the flight recorder events of writing, parsing, binding and serializing
+ * a feed of orders, and prints how many of each were recorded and the first of each.
+ * Every element is reported as slow, since the threshold is set to 0
+ */
+public class TestFlightRecorder {
+
+	static final String[] EVENTS = {"Compile", "Parse", "Bind", "Serialize", "SlowElement"};
+
+	public static void main(String... args) throws Exception {
+		System.setProperty("org.copalis.xml.slowElementMillis", "0");
+		int count = args.length > 0? Integer.parseInt(args[0]) : 100;
+
+		Recording recording = new Recording();
+		for (String name : EVENTS) {
+			recording.enable("org.copalis.xml." + name);
+		}
+		recording.start();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, out), count);
+		byte[] xml = out.toByteArray();
+
+		SAXHandler handler = new SAXHandler(OrderSchema.class, new OrderSchemaImpl());
+		XMLReader parser = XMLReaderFactory.createXMLReader();
+		parser.setContentHandler(handler);
+		parser.parse(new InputSource(new ByteArrayInputStream(xml)));
+
+		new Utf8Scanner(OrderSchema.class, new OrderSchemaImpl()).read(ByteBuffer.wrap(xml));
+
+		new StaxReader(OrderSchema.class, new OrderSchemaImpl(),
+				XMLInputFactory.newInstance().createXMLStreamReader(new ByteArrayInputStream(xml))).read();
+
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		TestOrderSchema.createOrders(DocBinder.bind(OrderSchema.class, doc), count);
+		new Serializer().write(doc, new ByteArrayOutputStream());
+
+		recording.stop();
+		File file = File.createTempFile("xml", ".jfr");
+		file.deleteOnExit();
+		recording.dump(file.toPath());
+		recording.close();
+
+		Map<String, Integer> counts = new TreeMap<String, Integer>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+			String name = event.getEventType().getName();
+			Integer n = counts.get(name);
+			counts.put(name, n == null? 1 : n + 1);
+			if (n == null || name.endsWith("Parse") || name.endsWith("Serialize")) {
+				System.out.println(event);
+			}
+		}
+		System.out.println(xml.length + " bytes: " + counts);
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.copalis.xml.DocBinder;
+import org.copalis.xml.SAXHandler;
+import org.copalis.xml.Serializer;
+import org.copalis.xml.StreamBinder;
+import org.copalis.xml.samples.util.DocumentModel;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Measures the latency of the first document written and read through OrderSchema,
+ * which is annotated with <code>@Schema.Generate</code>.
+ * Run it again with <code>-Dorg.copalis.xml.reflection=true</code> to compare
+ * with dynamic proxies and reflection
+ */
+public class TestGenerated {
+
+	public static void main(String... args) throws Exception {
+		Document doc = DocumentModel.create();
+		long start = System.nanoTime();
+		OrderSchema s = DocBinder.bind(OrderSchema.class, doc);
+		TestOrderSchema.createOrder(s);
+		long dom = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrder(StreamBinder.bind(OrderSchema.class, out));
+		long stream = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		OrderSchemaImpl impl = new OrderSchemaImpl();
+		XMLReader parser = XMLReaderFactory.createXMLReader();
+		parser.setContentHandler(new SAXHandler(OrderSchema.class, impl));
+		parser.parse(new InputSource(new ByteArrayInputStream(out.toByteArray())));
+		long read = System.nanoTime() - start;
+
+		ByteArrayOutputStream ser = new ByteArrayOutputStream();
+		new Serializer().write(doc, ser);
+		System.out.println(s.getClass().getName());
+		System.out.println(java.util.Arrays.equals(ser.toByteArray(), out.toByteArray())? "identical" : "DIFFERENT");
+		System.out.printf("first document: DocBinder %.1f ms, StreamBinder %.1f ms, SAXHandler %.1f ms%n",
+				dom / 1e6, stream / 1e6, read / 1e6);
+	}
+}
@@ -24,7 +24,19 @@ import org.w3c.dom.Document;
 public class TestOrderSchema {
 
 	static void createOrder(OrderSchema s) {
-		s._(s.order()
+		s._(order(s));
+	}
+	
+	static void createOrders(OrderSchema s, int count) {
+		OrderSchema.Orders orders = s.orders();
+		for (int i = 0; i < count; i++) {
+			orders._(order(s));
+		}
+		s._(orders);
+	}
+	
+	static OrderSchema.Order order(OrderSchema s) {
+		return s.order()
 			._(s.customer().id("c32").$("Chez Fred"))
 			._(s.product()
 				._(s.name("Birdsong Clock"))
@@ -39,7 +51,7 @@ public class TestOrderSchema {
 			._(s.subtotal().currency(USD).$("263.40"))
 			._(s.tax().rate("7.0").currency(USD).$("18.44"))
 			._(s.shipping().method("USPS").currency(USD).$("8.95"))
-			._(s.total().currency(USD).$("290.79")));
+			._(s.total().currency(USD).$("290.79"));
 	}
 	
 	public static void main(String... args) {
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.copalis.xml.ParallelReader;
+import org.copalis.xml.SAXHandler;
+import org.copalis.xml.StreamBinder;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Writes a feed of orders to a file, parses it sequentially and with ParallelReader,
+ * checks that the results are the same and compares the times taken
+ */
+public class TestParallelReader {
+
+	static OrderSchemaImpl sequential(File file) throws Exception {
+		OrderSchemaImpl impl = new OrderSchemaImpl();
+		XMLReader parser = XMLReaderFactory.createXMLReader();
+		parser.setFeature("http://xml.org/sax/features/namespaces", true);
+		parser.setContentHandler(new SAXHandler(OrderSchema.class, impl));
+		parser.parse(new InputSource(file.toURI().toString()));
+		return impl;
+	}
+
+	static OrderSchemaImpl merged(ParallelReader<OrderSchema> reader, File file) throws Exception {
+		OrderSchemaImpl impl = new OrderSchemaImpl();
+		reader.read(file, impl);
+		return impl;
+	}
+
+	static List<OrderSchemaImpl> chunked(ParallelReader<OrderSchema> reader, File file) throws Exception {
+		return reader.read(file, new Supplier<OrderSchemaImpl>() {
+			public OrderSchemaImpl get() {
+				return new OrderSchemaImpl();
+			}
+		});
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 100000;
+
+		File file = File.createTempFile("orders", ".xml");
+		file.deleteOnExit();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, out), count);
+		out.close();
+		System.out.println(count + " orders, " + file.length() / 1024 + "K");
+
+		ParallelReader<OrderSchema> reader = new ParallelReader<OrderSchema>(OrderSchema.class, "order");
+		reader.setChunkSize(Math.max(file.length() / 8, 4096));
+
+		String expected = sequential(file).toString();
+		System.out.println(expected.equals(merged(reader, file).toString())? "merged identical" : "merged DIFFERENT");
+
+		List<OrderSchemaImpl> chunks = chunked(reader, file);
+		StringBuilder joined = new StringBuilder();
+		for (OrderSchemaImpl chunk : chunks) {
+			String s = chunk.toString();
+			if (joined.length() > 0) joined.append(", ");
+			joined.append(s, 1, s.length() - 1);
+		}
+		System.out.println(chunks.size() + " chunks " + (expected.equals("[" + joined + "]")? "identical" : "DIFFERENT"));
+
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			sequential(file);
+			long seq = System.nanoTime();
+			merged(reader, file);
+			long merge = System.nanoTime();
+			chunked(reader, file);
+			long end = System.nanoTime();
+			System.out.printf("sequential %dms, merged %dms, chunked %dms%n",
+					(seq - start) / 1000000, (merge - seq) / 1000000, (end - merge) / 1000000);
+		}
+	}
+}
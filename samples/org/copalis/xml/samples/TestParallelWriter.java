@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.copalis.xml.DocBinder;
+import org.copalis.xml.ParallelWriter;
+import org.copalis.xml.SchemaMetrics;
+import org.copalis.xml.Serializer;
+import org.copalis.xml.StreamBinder;
+import org.copalis.xml.samples.util.DocumentModel;
+import org.w3c.dom.Document;
+
+/**
+ * Writes a feed of orders with the orders built on several threads, to a Document
+ * and to a stream, and checks that the output is the same as when they are built in sequence
+ */
+public class TestParallelWriter {
+
+	static final Function<OrderSchema, OrderSchema.Order> ORDER = new Function<OrderSchema, OrderSchema.Order>() {
+		public OrderSchema.Order apply(OrderSchema s) {
+			return TestOrderSchema.order(s);
+		}
+	};
+
+	static void write(ParallelWriter<OrderSchema> writer, OrderSchema s, int count) {
+		List<Function<OrderSchema, OrderSchema.Order>> builders = new ArrayList<Function<OrderSchema, OrderSchema.Order>>();
+		for (int i = 0; i < count; i++) builders.add(ORDER);
+		OrderSchema.Orders orders = s.orders();
+		for (OrderSchema.Order order : writer.build(s, builders)) {
+			orders._(order);
+		}
+		s._(orders);
+	}
+
+	static byte[] serialize(Document doc) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new Serializer().write(doc, out);
+		return out.toByteArray();
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 20000;
+		ParallelWriter<OrderSchema> writer = new ParallelWriter<OrderSchema>(OrderSchema.class);
+
+		Document doc = DocumentModel.create();
+		TestOrderSchema.createOrders(DocBinder.bind(OrderSchema.class, doc), count);
+		byte[] expected = serialize(doc);
+		doc = DocumentModel.create();
+		write(writer, DocBinder.bind(OrderSchema.class, doc), count);
+		System.out.println("DOM " + (Arrays.equals(expected, serialize(doc))? "identical" : "DIFFERENT"));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, out), count);
+		expected = out.toByteArray();
+		out = new ByteArrayOutputStream();
+		write(writer, StreamBinder.bind(OrderSchema.class, out), count);
+		System.out.println("stream " + (Arrays.equals(expected, out.toByteArray())? "identical" : "DIFFERENT"));
+
+		SchemaMetrics sequential = new SchemaMetrics(), parallel = new SchemaMetrics();
+		TestOrderSchema.createOrders(DocBinder.bind(OrderSchema.class, DocumentModel.create(), sequential), count);
+		write(writer, DocBinder.bind(OrderSchema.class, DocumentModel.create(), parallel), count);
+		System.out.printf("listener: sequential %d elements, %d calls; parallel %d elements, %d calls%n",
+				sequential.getElementCount(), sequential.getInvocationCount(),
+				parallel.getElementCount(), parallel.getInvocationCount());
+
+		List<Function<OrderSchema, OrderSchema.Order>> failing = new ArrayList<Function<OrderSchema, OrderSchema.Order>>();
+		failing.add(new Function<OrderSchema, OrderSchema.Order>() {
+			public OrderSchema.Order apply(OrderSchema s) {
+				throw new IllegalStateException("failed builder");
+			}
+		});
+		for (int i = 0; i < count; i++) failing.add(ORDER);
+		try {
+			writer.build(DocBinder.bind(OrderSchema.class, DocumentModel.create()), failing);
+			throw new AssertionError("A failing builder was not reported");
+		} catch (IllegalStateException e) {
+			System.out.println("failure: " + e.getMessage());
+		}
+
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			TestOrderSchema.createOrders(DocBinder.bind(OrderSchema.class, DocumentModel.create()), count);
+			long dom = System.nanoTime();
+			write(writer, DocBinder.bind(OrderSchema.class, DocumentModel.create()), count);
+			long parallelDom = System.nanoTime();
+			TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, new ByteArrayOutputStream()), count);
+			long stream = System.nanoTime();
+			write(writer, StreamBinder.bind(OrderSchema.class, new ByteArrayOutputStream()), count);
+			long parallelStream = System.nanoTime();
+			System.out.printf("DOM %dms, parallel %dms; stream %dms, parallel %dms%n",
+					(dom - start) / 1000000, (parallelDom - dom) / 1000000,
+					(stream - parallelDom) / 1000000, (parallelStream - stream) / 1000000);
+		}
+	}
+}
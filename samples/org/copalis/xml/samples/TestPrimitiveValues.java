@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.copalis.xml.CompactTree;
+import org.copalis.xml.DocBinder;
+import org.copalis.xml.SAXHandler;
+import org.copalis.xml.Schema;
+import org.copalis.xml.StreamBinder;
+import org.copalis.xml.Utf8Scanner;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Parses a feed of sensor readings whose schema methods take primitive and CharSequence values,
+ * checks that SAX, the UTF-8 scanner and replaying a compact tree pass the same values,
+ * and reports the bytes allocated per reading by each, in addition to the allocation of the parser
+ */
+public class TestPrimitiveValues {
+
+	@Schema.Generate
+	public interface Readings {
+		void _(Feed feed);
+
+		Feed feed();
+		Reading reading();
+		Reading.Unit unit(CharSequence name);
+
+		interface Feed {
+			Feed _(Reading reading);
+		}
+
+		interface Reading {
+			interface Unit {}
+
+			Reading sensor(CharSequence id);
+			Reading time(long millis);
+			Reading value(double value);
+			Reading count(int count);
+			Reading valid(boolean valid);
+			Reading _(Unit unit);
+			Reading $(CharSequence note);
+		}
+	}
+
+	/**
+	 * Sums the values it is passed, without allocating
+	 */
+	static class Totals implements Readings, Readings.Feed, Readings.Reading, Readings.Reading.Unit {
+		long time, count, valid, chars, hash;
+		double value;
+
+		public void _(Feed feed) {}
+		public Feed feed() { return this; }
+		public Reading reading() { return this; }
+		public Feed _(Reading reading) { return this; }
+		public Reading _(Unit unit) { return this; }
+		public Reading time(long millis) { time += millis; return this; }
+		public Reading value(double value) { this.value += value; return this; }
+		public Reading count(int count) { this.count += count; return this; }
+		public Reading valid(boolean valid) { if (valid) this.valid++; return this; }
+		public Reading sensor(CharSequence id) { return text(id); }
+		public Reading $(CharSequence note) { return text(note); }
+
+		public Unit unit(CharSequence name) {
+			text(name);
+			return this;
+		}
+
+		private Reading text(CharSequence s) {
+			chars += s.length();
+			for (int i = 0; i < s.length(); i++) hash = 31 * hash + s.charAt(i);
+			return this;
+		}
+
+		public String toString() {
+			return String.format("time %d, value %.2f, count %d, valid %d, chars %d, hash %x",
+					time, value, count, valid, chars, hash);
+		}
+	}
+
+	static byte[] feed(int count) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		feed(StreamBinder.bind(Readings.class, out), count);
+		return out.toByteArray();
+	}
+
+	static void feed(Readings s, int count) {
+		Readings.Feed feed = s.feed();
+		for (int i = 0; i < count; i++) {
+			feed._(s.reading().sensor("s" + i % 50).time(1262304000000L + i * 1000L)
+					.value(i % 1000 / 8.0 - 20).count(100000 + i).valid(i % 3 != 0)
+					._(s.unit("degC"))
+					.$("reading " + i));
+		}
+		s._(feed);
+	}
+
+	static Totals sax(byte[] xml) throws Exception {
+		Totals totals = new Totals();
+		XMLReader parser = XMLReaderFactory.createXMLReader();
+		parser.setContentHandler(new SAXHandler(Readings.class, totals));
+		parser.parse(new InputSource(new ByteArrayInputStream(xml)));
+		return totals;
+	}
+
+	static Totals scan(byte[] xml) throws Exception {
+		Totals totals = new Totals();
+		new Utf8Scanner(Readings.class, totals).read(ByteBuffer.wrap(xml));
+		return totals;
+	}
+
+	static Totals replay(CompactTree<Readings> tree) throws Exception {
+		Totals totals = new Totals();
+		tree.replay(totals);
+		return totals;
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 200000;
+		byte[] xml = feed(count);
+		CompactTree<Readings> tree = new CompactTree<Readings>(Readings.class);
+		feed(DocBinder.bind(tree), count);
+		System.out.println(sax(xml));
+		System.out.println(sax(xml).toString().equals(scan(xml).toString())? "scanner identical" : "scanner DIFFERENT");
+		System.out.println(sax(xml).toString().equals(replay(tree).toString())? "replay identical" : "replay DIFFERENT");
+
+		for (int round = 0; round < 5; round++) {
+			long start = TestAllocation.allocated();
+			sax(xml);
+			long sax = TestAllocation.allocated();
+			scan(xml);
+			long scan = TestAllocation.allocated();
+			replay(tree);
+			long replay = TestAllocation.allocated();
+			System.out.printf("SAX %.1f bytes/reading, scanner %.1f bytes/reading, replay %.1f bytes/reading%n",
+					(double) (sax - start) / count, (double) (scan - sax) / count, (double) (replay - scan) / count);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.copalis.xml.RecordPipeline;
+import org.copalis.xml.SAXHandler;
+import org.copalis.xml.StreamBinder;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Parses a feed of orders whose processing is slow, first on the parsing thread
+ * and then through ordered and unordered RecordPipelines
+ */
+public class TestRecordPipeline {
+
+	/**
+	 * Simulates processing that waits for I/O, such as a database write
+	 */
+	static final Consumer<OrderSchema.Order> SLOW = new Consumer<OrderSchema.Order>() {
+		public void accept(OrderSchema.Order order) {
+			LockSupport.parkNanos(50000);
+		}
+	};
+
+	static void parse(byte[] xml, Consumer<OrderSchema.Order> records) throws Exception {
+		SAXHandler handler = new SAXHandler(OrderSchema.class, new OrderSchemaImpl());
+		handler.setRecords(OrderSchema.Order.class, records);
+		XMLReader parser = XMLReaderFactory.createXMLReader();
+		parser.setContentHandler(handler);
+		parser.parse(new InputSource(new ByteArrayInputStream(xml)));
+	}
+
+	static void pipeline(String name, byte[] xml, ExecutorService executor, boolean ordered) throws Exception {
+		final List<OrderSchema.Order> parsed = new ArrayList<OrderSchema.Order>();
+		final List<OrderSchema.Order> processed = new ArrayList<OrderSchema.Order>();
+		final RecordPipeline<OrderSchema.Order> pipeline = new RecordPipeline<OrderSchema.Order>(executor,
+				new Consumer<OrderSchema.Order>() {
+					public void accept(OrderSchema.Order order) {
+						SLOW.accept(order);
+						synchronized (processed) {
+							processed.add(order);
+						}
+					}
+				});
+		pipeline.setBatchSize(100);
+		pipeline.setQueueDepth(8);
+		pipeline.setOrdered(ordered);
+
+		long start = System.nanoTime();
+		parse(xml, new Consumer<OrderSchema.Order>() {
+			public void accept(OrderSchema.Order order) {
+				parsed.add(order);
+				pipeline.accept(order);
+			}
+		});
+		pipeline.close();
+		long time = System.nanoTime() - start;
+
+		System.out.printf("%s: %dms, %d records in %d batches, queue wait avg %.1fms max %.1fms, parser waited %dms, %s%n",
+				name, time / 1000000, pipeline.records(), pipeline.batches(),
+				pipeline.queueWaitNanos() / 1e6 / pipeline.batches(), pipeline.maxQueueWaitNanos() / 1e6,
+				pipeline.parserWaitNanos() / 1000000,
+				parsed.equals(processed)? "in document order" : processed.size() == parsed.size()? "reordered" : "MISSING RECORDS");
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 10000;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, out), count);
+		byte[] xml = out.toByteArray();
+
+		long start = System.nanoTime();
+		parse(xml, SLOW);
+		System.out.println("on the parsing thread: " + (System.nanoTime() - start) / 1000000 + "ms");
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int round = 0; round < 3; round++) {
+			pipeline("ordered", xml, executor, true);
+			pipeline("unordered", xml, executor, false);
+		}
+		executor.shutdown();
+	}
+}
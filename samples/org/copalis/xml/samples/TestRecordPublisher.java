@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+
+import org.copalis.xml.Publisher;
+import org.copalis.xml.RecordPublisher;
+import org.copalis.xml.StreamBinder;
+
+/**
+ * Subscribes to the orders of a large feed, and shows that the parser only reads
+ * as far into the document as the subscriber's requests require
+ */
+public class TestRecordPublisher {
+
+	/**
+	 * Counts how much of the document the parser has read
+	 */
+	static class Input extends ByteArrayInputStream {
+		Input(byte[] buf) {
+			super(buf);
+		}
+
+		int position() {
+			return pos;
+		}
+	}
+
+	static class OrderSubscriber implements Publisher.Subscriber<OrderSchema.Order> {
+		Publisher.Subscription subscription;
+		int received;
+		String end = "open";
+
+		public void onSubscribe(Publisher.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		public void onNext(OrderSchema.Order order) {
+			received++;
+		}
+
+		public void onError(Throwable throwable) {
+			end = "error " + throwable;
+		}
+
+		public void onComplete() {
+			end = "complete";
+		}
+	}
+
+	static RecordPublisher<OrderSchema.Order> publisher(Input in) throws Exception {
+		return new RecordPublisher<OrderSchema.Order>(OrderSchema.class, new OrderSchemaImpl(),
+				OrderSchema.Order.class, XMLInputFactory.newInstance().createXMLStreamReader(in));
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 10000;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, out), count);
+		byte[] xml = out.toByteArray();
+		System.out.println(count + " orders, " + xml.length / 1024 + "K");
+
+		Input in = new Input(xml);
+		OrderSubscriber subscriber = new OrderSubscriber();
+		publisher(in).subscribe(subscriber);
+		System.out.println("subscribed: " + subscriber.received + " orders, " + in.position() / 1024 + "K read");
+		subscriber.subscription.request(2);
+		System.out.println("requested 2: " + subscriber.received + " orders, " + in.position() / 1024 + "K read");
+		subscriber.subscription.request(100);
+		System.out.println("requested 100 more: " + subscriber.received + " orders, " + in.position() / 1024 + "K read");
+		subscriber.subscription.cancel();
+		subscriber.subscription.request(100);
+		System.out.println("cancelled: " + subscriber.received + " orders, " + in.position() / 1024 + "K read, " + subscriber.end);
+
+		in = new Input(xml);
+		subscriber = new OrderSubscriber();
+		publisher(in).subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		System.out.println("unbounded: " + subscriber.received + " orders, " + in.position() / 1024 + "K read, " + subscriber.end);
+
+		subscriber = new OrderSubscriber();
+		RecordPublisher<OrderSchema.Order> publisher = publisher(new Input(xml));
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(0);
+		System.out.println("requested 0: " + subscriber.end);
+		OrderSubscriber second = new OrderSubscriber();
+		publisher.subscribe(second);
+		System.out.println("second subscriber: " + second.end);
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.function.Consumer;
+
+import org.copalis.xml.SAXHandler;
+import org.copalis.xml.StreamBinder;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Streams a large feed of orders through a SAXHandler in record mode
+ * and shows that the heap in use does not grow with the number of orders
+ */
+public class TestRecords {
+
+	static long used() {
+		System.gc();
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	public static void main(String... args) throws Exception {
+		final int count = args.length > 0? Integer.parseInt(args[0]) : 1000000;
+
+		final PipedOutputStream out = new PipedOutputStream();
+		PipedInputStream in = new PipedInputStream(out, 64 * 1024);
+		Thread writer = new Thread() {
+			@Override public void run() {
+				TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, out), count);
+				try {
+					out.close();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		writer.start();
+
+		final int[] records = new int[1];
+		final String[] first = new String[1];
+
+		SAXHandler handler = new SAXHandler(OrderSchema.class, new OrderSchemaImpl());
+		handler.setRecords(OrderSchema.Order.class, new Consumer<OrderSchema.Order>() {
+			public void accept(OrderSchema.Order order) {
+				if (records[0]++ == 0) first[0] = order.toString();
+				if (records[0] % (count / 5) == 0) {
+					System.out.println(records[0] + " orders, heap in use " + used() / 1024 + "K");
+				}
+			}
+		});
+		XMLReader parser = XMLReaderFactory.createXMLReader();
+		parser.setContentHandler(handler);
+		parser.parse(new InputSource(in));
+		writer.join();
+
+		System.out.println(first[0]);
+		System.out.println(records[0] == count? records[0] + " orders streamed" : "MISSING ORDERS: " + records[0]);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.copalis.xml.DocBinder;
+import org.copalis.xml.SAXHandler;
+import org.copalis.xml.SchemaMetrics;
+import org.copalis.xml.StreamBinder;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Collects metrics while parsing a feed of orders and building a Document,
+ * reads them through JMX, and compares the parsing time with and without a listener
+ */
+public class TestSchemaMetrics {
+
+	static long parse(byte[] xml, SchemaMetrics metrics) throws Exception {
+		SAXHandler handler = new SAXHandler(OrderSchema.class, new OrderSchemaImpl());
+		handler.setListener(metrics);
+		XMLReader parser = XMLReaderFactory.createXMLReader();
+		parser.setContentHandler(handler);
+		long start = System.nanoTime();
+		parser.parse(new InputSource(new ByteArrayInputStream(xml)));
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 50000;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, out), count);
+		byte[] xml = out.toByteArray();
+
+		SchemaMetrics metrics = new SchemaMetrics();
+		parse(xml, metrics);
+		System.out.println(metrics);
+		System.out.println("Elements:");
+		for (String line : metrics.getElements()) System.out.println("  " + line);
+		System.out.println("Methods:");
+		for (String line : metrics.getMethods()) System.out.println("  " + line);
+		System.out.println("Attributes:");
+		for (String line : metrics.getAttributes()) System.out.println("  " + line);
+
+		ObjectName name = metrics.register("orders");
+		System.out.println("JMX " + name + " ElementCount = "
+				+ ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ElementCount"));
+
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		SchemaMetrics building = new SchemaMetrics();
+		TestOrderSchema.createOrders(DocBinder.bind(OrderSchema.class, doc, building), 1000);
+		System.out.println("Building: " + building);
+		long calls = 0;
+		for (SchemaMetrics.Stats stats : building.methods().values()) calls += stats.count();
+		System.out.println(calls == building.getInvocationCount()? "every method call listed" : "METHOD CALLS MISSING");
+
+		for (int round = 0; round < 5; round++) {
+			metrics.reset();
+			System.out.printf("no listener %dms, metrics %dms%n", parse(xml, null), parse(xml, metrics));
+		}
+	}
+}
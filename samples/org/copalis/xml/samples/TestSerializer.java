@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.copalis.xml.DocBinder;
+import org.copalis.xml.Serializer;
+import org.copalis.xml.samples.util.DocumentModel;
+import org.w3c.dom.Document;
+
+/**
+ * Compares Serializer output and throughput with the JAXP Transformer
+ * on the order sample scaled up to 100,000 orders
+ */
+public class TestSerializer {
+	
+	static final OutputStream NULL = new OutputStream() {
+		@Override public void write(int b) {}
+		@Override public void write(byte[] b, int off, int len) {}
+	};
+	
+	static void transform(Document doc, int indent, OutputStream out) throws Exception {
+		Transformer transformer = TransformerFactory.newInstance().newTransformer();
+		if (indent > 0) {
+			transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+			transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", Integer.toString(indent));
+		}
+		transformer.transform(new DOMSource(doc), new StreamResult(out));
+	}
+	
+	static void compare(Document doc, int indent) throws Exception {
+		ByteArrayOutputStream dom = new ByteArrayOutputStream(), ser = new ByteArrayOutputStream();
+		transform(doc, indent, dom);
+		new Serializer(indent).write(doc, ser);
+		System.out.println("indent " + indent + (Arrays.equals(dom.toByteArray(), ser.toByteArray())? ": identical" : ": DIFFERENT"));
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 100000;
+		
+		Document doc = DocumentModel.create();
+		TestOrderSchema.createOrder(DocBinder.bind(OrderSchema.class, doc));
+		new Serializer(2).write(doc, System.out);
+		compare(doc, 0);
+		compare(doc, 2);
+		
+		doc = DocumentModel.create();
+		TestOrderSchema.createOrders(DocBinder.bind(OrderSchema.class, doc), count);
+		compare(doc, 0);
+		
+		Serializer serializer = new Serializer();
+		for (int round = 0; round < 10; round++) {
+			long start = System.nanoTime();
+			transform(doc, 0, NULL);
+			long transformer = System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			serializer.write(doc, NULL);
+			long serialized = System.nanoTime() - start;
+			
+			System.out.printf("%d orders: Transformer %d ms, Serializer %d ms, %.1fx%n", count,
+					transformer / 1000000, serialized / 1000000, (double) transformer / serialized);
+		}
+	}
+}
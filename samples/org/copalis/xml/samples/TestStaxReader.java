@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import org.copalis.xml.SAXHandler;
+import org.copalis.xml.StaxReader;
+import org.copalis.xml.StreamBinder;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Parses the order sample with both SAXHandler and StaxReader, checks that
+ * they produce the same result and compares their throughput
+ */
+public class TestStaxReader {
+
+	static OrderSchemaImpl sax(byte[] xml) throws Exception {
+		OrderSchemaImpl impl = new OrderSchemaImpl();
+		XMLReader parser = XMLReaderFactory.createXMLReader();
+		parser.setContentHandler(new SAXHandler(OrderSchema.class, impl));
+		parser.parse(new InputSource(new ByteArrayInputStream(xml)));
+		return impl;
+	}
+
+	static OrderSchemaImpl stax(byte[] xml) throws Exception {
+		OrderSchemaImpl impl = new OrderSchemaImpl();
+		XMLStreamReader reader = XMLInputFactory.newInstance()
+				.createXMLStreamReader(new ByteArrayInputStream(xml));
+		new StaxReader(OrderSchema.class, impl, reader).read();
+		reader.close();
+		return impl;
+	}
+
+	public static void main(String... args) throws Exception {
+		int count = args.length > 0? Integer.parseInt(args[0]) : 100000;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrder(StreamBinder.bind(OrderSchema.class, out));
+		byte[] xml = out.toByteArray();
+		System.out.println(stax(xml));
+		System.out.println(sax(xml).toString().equals(stax(xml).toString())? "identical" : "DIFFERENT");
+
+		// read one element at a time; the order is the only element completed at depth 0
+		XMLStreamReader reader = XMLInputFactory.newInstance()
+				.createXMLStreamReader(new ByteArrayInputStream(xml));
+		StaxReader stax = new StaxReader(OrderSchema.class, new OrderSchemaImpl(), reader);
+		int elements = 0;
+		while (stax.next()) {
+			elements++;
+			if (stax.depth() == 0) System.out.println("order completed after " + elements + " elements");
+		}
+
+		out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, out), count);
+		xml = out.toByteArray();
+		System.out.println(sax(xml).toString().equals(stax(xml).toString())? "identical" : "DIFFERENT");
+
+		for (int round = 0; round < 10; round++) {
+			long start = System.nanoTime();
+			sax(xml);
+			long sax = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			stax(xml);
+			long pull = System.nanoTime() - start;
+
+			System.out.printf("%d orders: SAXHandler %d ms, StaxReader %d ms%n", count,
+					sax / 1000000, pull / 1000000);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.copalis.xml.DocBinder;
+import org.copalis.xml.StreamBinder;
+import org.copalis.xml.samples.util.DocumentModel;
+import org.w3c.dom.Document;
+
+/**
+ * Writes the sample documents with StreamBinder and checks that the output
+ * is identical to serializing the DocBinder document
+ */
+public class TestStreamBinder {
+
+	static byte[] dom(Document doc) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TransformerFactory.newInstance().newTransformer()
+				.transform(new DOMSource(doc), new StreamResult(out));
+		return out.toByteArray();
+	}
+
+	static void compare(String name, byte[] dom, byte[] stream) {
+		System.out.println(new String(stream));
+		System.out.println(name + (Arrays.equals(dom, stream)? ": identical" : ": DIFFERENT"));
+	}
+
+	public static void main(String... args) throws Exception {
+		Document doc = DocumentModel.create();
+		TestDocBinder.write(DocBinder.bind(PeopleSchema.class, doc));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestDocBinder.write(StreamBinder.bind(PeopleSchema.class, out));
+		compare("PeopleSchema", dom(doc), out.toByteArray());
+
+		doc = DocumentModel.create();
+		TestOrderSchema.createOrder(DocBinder.bind(OrderSchema.class, doc));
+		out = new ByteArrayOutputStream();
+		TestOrderSchema.createOrder(StreamBinder.bind(OrderSchema.class, out));
+		compare("OrderSchema", dom(doc), out.toByteArray());
+	}
+}
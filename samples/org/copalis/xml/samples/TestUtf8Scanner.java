@@ -0,0 +1,146 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.copalis.xml.DocBinder;
+import org.copalis.xml.SAXHandler;
+import org.copalis.xml.StreamBinder;
+import org.copalis.xml.Utf8Scanner;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Checks that the UTF-8 scanner gives the same results as SAX for the people document
+ * and a file of orders, that it rejects documents outside its subset, and compares its speed with SAX
+ */
+public class TestUtf8Scanner {
+
+	static String people(boolean sax) throws Exception {
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		PeopleSchema schema = DocBinder.bind(PeopleSchema.class, doc);
+		if (sax) {
+			XMLReader parser = XMLReaderFactory.createXMLReader();
+			parser.setContentHandler(new SAXHandler(PeopleSchema.class, schema));
+			parser.parse(new InputSource(TestSAXHandler.input()));
+		} else {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			InputStream in = TestSAXHandler.input();
+			byte[] buf = new byte[4096];
+			for (int n; (n = in.read(buf)) > 0; ) bytes.write(buf, 0, n);
+			in.close();
+			new Utf8Scanner(PeopleSchema.class, schema).read(ByteBuffer.wrap(bytes.toByteArray()));
+		}
+		StringWriter out = new StringWriter();
+		TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(out));
+		return out.toString();
+	}
+
+	static OrderSchemaImpl scan(File file) throws Exception {
+		OrderSchemaImpl impl = new OrderSchemaImpl();
+		new Utf8Scanner(OrderSchema.class, impl).read(file);
+		return impl;
+	}
+
+	/**
+	 * Parses the orders as records that are discarded, so that the time is mostly parsing
+	 * rather than building and collecting the tree
+	 */
+	static long stream(byte[] xml, boolean sax) throws Exception {
+		Consumer<OrderSchema.Order> discard = new Consumer<OrderSchema.Order>() {
+			public void accept(OrderSchema.Order order) {}
+		};
+		long start = System.nanoTime();
+		if (sax) {
+			SAXHandler handler = new SAXHandler(OrderSchema.class, new OrderSchemaImpl());
+			handler.setRecords(OrderSchema.Order.class, discard);
+			XMLReader parser = XMLReaderFactory.createXMLReader();
+			parser.setContentHandler(handler);
+			parser.parse(new InputSource(new ByteArrayInputStream(xml)));
+		} else {
+			Utf8Scanner scanner = new Utf8Scanner(OrderSchema.class, new OrderSchemaImpl());
+			scanner.setRecords(OrderSchema.Order.class, discard);
+			scanner.read(ByteBuffer.wrap(xml));
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	static void reject(String xml) {
+		try {
+			new Utf8Scanner(PeopleSchema.class, new PeopleSchemaImpl())
+					.read(ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8)));
+			System.out.println("ACCEPTED " + xml);
+		} catch (SAXParseException e) {
+			System.out.println("rejected at " + e.getLineNumber() + ":" + e.getColumnNumber() + ": " + e.getMessage());
+		} catch (Exception e) {
+			System.out.println("FAILED " + e);
+		}
+	}
+
+	public static void main(String... args) throws Exception {
+		System.out.println(people(true).equals(people(false))? "people identical" : "people DIFFERENT");
+
+		int count = args.length > 0? Integer.parseInt(args[0]) : 100000;
+		File file = File.createTempFile("orders", ".xml");
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		TestOrderSchema.createOrders(StreamBinder.bind(OrderSchema.class, out), count);
+		out.close();
+		byte[] xml = java.nio.file.Files.readAllBytes(file.toPath());
+		String expected = TestStaxReader.sax(xml).toString();
+		System.out.println(expected.equals(scan(file).toString())? "orders identical" : "orders DIFFERENT");
+		ByteBuffer direct = ByteBuffer.allocateDirect(xml.length);
+		direct.put(xml).flip();
+		OrderSchemaImpl impl = new OrderSchemaImpl();
+		new Utf8Scanner(OrderSchema.class, impl).read(direct);
+		System.out.println(expected.equals(impl.toString())? "direct identical" : "direct DIFFERENT");
+
+		reject("<!DOCTYPE people [<!ENTITY x 'y'>]><people/>");
+		reject("<?xml version='1.0' encoding='ISO-8859-1'?><people/>");
+		reject("<people>\n  <person></people>");
+		reject("<people>&nbsp;</people>");
+		reject("<people/><people/>");
+		reject("<?xml");
+
+		for (int round = 0; round < 10; round++) {
+			long start = System.nanoTime();
+			TestStaxReader.sax(xml);
+			long sax = System.nanoTime();
+			scan(file);
+			long scanner = System.nanoTime();
+			System.out.printf("SAX %dms, scanner %dms; streaming SAX %dms, scanner %dms%n",
+					(sax - start) / 1000000, (scanner - sax) / 1000000, stream(xml, true), stream(xml, false));
+		}
+	}
+}
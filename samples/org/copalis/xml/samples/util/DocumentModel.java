@@ -15,15 +15,12 @@
  */
 package org.copalis.xml.samples.util;
 
+import java.io.IOException;
+
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
+import org.copalis.xml.Serializer;
 import org.w3c.dom.Document;
 
 /**
@@ -32,22 +29,12 @@ import org.w3c.dom.Document;
  */
 public class DocumentModel {
 	
-	private final Transformer transformer;
-	
-	public DocumentModel() {
-		try {
-			transformer = TransformerFactory.newInstance().newTransformer();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
-		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-	}
+	private final Serializer serializer = new Serializer(2);
 	
 	public void printDocument(Document document) {
         try {
-			transformer.transform(new DOMSource(document), new StreamResult(System.out));
-		} catch (TransformerException e) {
+			serializer.write(document, System.out);
+		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
@@ -0,0 +1,401 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of schema documents, for exchanging them between
+ * programs that share the schema without writing and parsing XML text
+ * <p>
+ * A document starts with the names of the schema's {@link Symbols}, so that the decoder
+ * can map them onto its own version of the schema, followed by a stream of tokens in which
+ * elements and attributes are identified by their symbol ids as variable-length integers.
+ * Values whose schema parameter type is integral are stored as variable-length integers,
+ * and values of enum parameters are stored once per document and then referred to by number;
+ * all other values are stored as UTF-8 strings.
+ * </p>
+ * <p>
+ * {@link #bind(Class, OutputStream)} returns a schema instance that encodes a document as
+ * {@link StreamBinder} writes XML, with the same rules for building it.
+ * {@link #read(Class, Object, InputStream)} calls a schema implementation directly from the tokens,
+ * as a parser would for the equivalent XML except that text is passed on exactly as it was written,
+ * without a whitespace mode, and that integers are passed on without being formatted and parsed.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public final class BinaryFormat {
+
+	private static final byte[] MAGIC = {'C', 'X', 'B', 1};
+
+	private static final int EOF = 0, START = 1, END = 2, ATTRIBUTE = 3, TEXT = 7;
+	private static final int STRING = 0, INT = 1, ENUM = 2, NEW_ENUM = 3;
+
+	private BinaryFormat() {}
+
+	/**
+	 * Creates a new instance of the supplied interface that encodes a document to an OutputStream.
+	 * The stream is flushed but not closed when the document is complete.
+	 *
+	 * @param <T>
+	 * @param definition A schema interface
+	 * @param out An output stream
+	 * @return A new instance of the schema, bound to the stream
+	 */
+	public static <T> T bind(Class<T> definition, OutputStream out) {
+		return bind(Schema.of(definition), out);
+	}
+
+	public static <T> T bind(Schema<T> schema, OutputStream out) {
+		return StreamBinder.bind(schema, new Encoder(schema, out));
+	}
+
+	/**
+	 * Decodes a document into a schema implementation
+	 *
+	 * @param <T>
+	 * @param definition A schema interface
+	 * @param handler The schema implementation
+	 * @param in The encoded document. It is read through a buffer, so bytes that follow the document
+	 * may also be consumed; it is not closed
+	 * @throws IOException If the stream cannot be read or is not a valid document,
+	 * or if the schema implementation throws an exception, which is the cause
+	 */
+	public static <T> void read(Class<T> definition, T handler, InputStream in) throws IOException {
+		read(Schema.of(definition), handler, in);
+	}
+
+	public static <T> void read(Schema<T> schema, T handler, InputStream in) throws IOException {
+		new Decoder(schema, handler, in).decode();
+	}
+
+	/**
+	 * Writes the events of a {@link StreamBinder} document as tokens
+	 */
+	static final class Encoder implements StreamBinder.Sink {
+		private final Schema<?> schema;
+		private final Symbols symbols;
+		private final OutputStream out;
+		private final Map<String, Integer> enums = new HashMap<String, Integer>();
+		private byte[] buf = new byte[16 * 1024];
+		private int pos;
+
+		/** The symbol ids of the open elements, negated for elements with attributes */
+		private int[] open = new int[16];
+		private int depth;
+
+		Encoder(Schema<?> schema, OutputStream out) {
+			this.schema = schema;
+			this.symbols = schema.symbols();
+			this.out = out;
+		}
+
+		public void start() throws IOException {
+			for (byte b : MAGIC) write(b);
+			varint(symbols.size());
+			for (int i = 0; i < symbols.size(); i++) {
+				string(symbols.name(i));
+			}
+		}
+
+		public void start(StreamBinder.Element e, boolean empty) throws IOException {
+			int id = symbol(e.name);
+			int count = 0;
+			for (int i = 0, n = e.attributes.size(); i < n; i += 2) {
+				if (!"xmlns".equals(e.attributes.get(i))) count++;
+			}
+			write(START);
+			varint(id);
+			varint(count);
+			Schema.Binding factory = count > 0? schema.factory(id) : null;
+			for (int i = 0, n = e.attributes.size(); i < n; i += 2) {
+				String name = e.attributes.get(i);
+				if ("xmlns".equals(name)) continue;
+				int attr = symbol(name);
+				Schema.Binding binding = factory != null && factory.node() != null? factory.node().attribute(attr) : null;
+				value(ATTRIBUTE, binding, e.attributes.get(i + 1), attr);
+			}
+			if (empty) {
+				write(END);
+			} else {
+				if (depth == open.length) open = Arrays.copyOf(open, depth * 2);
+				open[depth++] = count > 0? -id - 1 : id;
+			}
+		}
+
+		public void text(String text) throws IOException {
+			int id = open[depth - 1];
+			Schema.Binding binding = null;
+			if (id >= 0) binding = schema.textNodeFactory(id);
+			if (binding == null) {
+				Schema.Binding factory = schema.factory(id >= 0? id : -id - 1);
+				binding = factory != null && factory.node() != null? factory.node().text() : null;
+			}
+			value(TEXT, binding, text, -1);
+		}
+
+		public void fragment(byte[] encoded) {
+			throw new UnsupportedOperationException("Encoded XML fragments cannot be written to a binary document");
+		}
+
+		public void end(boolean document) throws IOException {
+			if (document) {
+				write(EOF);
+				out.write(buf, 0, pos);
+				pos = 0;
+				out.flush();
+			} else {
+				depth--;
+				write(END);
+			}
+		}
+
+		private int symbol(String name) {
+			int id = symbols.id(name);
+			if (id < 0) throw new IllegalArgumentException("Name " + name + " is not part of " + schema);
+			return id;
+		}
+
+		/**
+		 * Writes a value token
+		 *
+		 * @param base ATTRIBUTE or TEXT
+		 * @param binding The method the value is passed to, or null if it is not known
+		 * @param symbol The attribute's symbol id, or -1 for text
+		 */
+		private void value(int base, Schema.Binding binding, String value, int symbol) throws IOException {
+			Class<?> type = binding != null? binding.parameterType() : null;
+			if (type != null && isIntegral(type) && isCanonicalLong(value)) {
+				write(base + INT);
+				if (symbol >= 0) varint(symbol);
+				long n = Long.parseLong(value);
+				varlong((n << 1) ^ (n >> 63));
+			} else if (type != null && type.isEnum()) {
+				Integer index = enums.get(value);
+				if (index != null) {
+					write(base + ENUM);
+					if (symbol >= 0) varint(symbol);
+					varint(index);
+				} else {
+					enums.put(value, enums.size());
+					write(base + NEW_ENUM);
+					if (symbol >= 0) varint(symbol);
+					string(value);
+				}
+			} else {
+				write(base + STRING);
+				if (symbol >= 0) varint(symbol);
+				string(value);
+			}
+		}
+
+		private static boolean isIntegral(Class<?> type) {
+			return type == int.class || type == Integer.class || type == long.class || type == Long.class
+					|| type == short.class || type == Short.class || type == byte.class || type == Byte.class;
+		}
+
+		/**
+		 * @return true if the string is a decimal integer that {@link Long#toString(long)}
+		 * would write the same way, so that it can be stored as a number
+		 */
+		private static boolean isCanonicalLong(String s) {
+			int n = s.length(), i = n > 0 && s.charAt(0) == '-'? 1 : 0;
+			if (i == n || n - i > 18) return false;
+			if (s.charAt(i) == '0' && (n - i > 1 || i > 0)) return false;
+			for (; i < n; i++) {
+				char c = s.charAt(i);
+				if (c < '0' || c > '9') return false;
+			}
+			return true;
+		}
+
+		private void string(String s) throws IOException {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			varint(bytes.length);
+			if (pos + bytes.length > buf.length) {
+				out.write(buf, 0, pos);
+				pos = 0;
+				if (bytes.length > buf.length) {
+					out.write(bytes);
+					return;
+				}
+			}
+			System.arraycopy(bytes, 0, buf, pos, bytes.length);
+			pos += bytes.length;
+		}
+
+		private void varint(int n) throws IOException {
+			varlong(n & 0xFFFFFFFFL);
+		}
+
+		private void varlong(long n) throws IOException {
+			while ((n & ~0x7FL) != 0) {
+				write((int) ((n & 0x7F) | 0x80));
+				n >>>= 7;
+			}
+			write((int) n);
+		}
+
+		private void write(int b) throws IOException {
+			if (pos == buf.length) {
+				out.write(buf, 0, pos);
+				pos = 0;
+			}
+			buf[pos++] = (byte) b;
+		}
+	}
+
+	/**
+	 * Reads tokens and passes them to a {@link Dispatcher}
+	 */
+	static final class Decoder {
+		private final Symbols symbols;
+		private final Dispatcher dispatcher;
+		private final InputStream in;
+		private final List<String> enums = new ArrayList<String>();
+		private byte[] buf = new byte[16 * 1024];
+		private int pos, limit;
+
+		/** The local symbol ids and names of the document's symbols */
+		private int[] ids;
+		private String[] names;
+
+		Decoder(Schema<?> schema, Object handler, InputStream in) {
+			this.symbols = schema.symbols();
+			this.dispatcher = new Dispatcher(schema, handler);
+			this.in = in;
+		}
+
+		void decode() throws IOException {
+			for (byte b : MAGIC) {
+				if (read() != b) throw new IOException("Not a binary schema document");
+			}
+			try {
+				int n = varint();
+				if (n < 0) throw new IOException("Invalid symbol count " + n);
+				// grown as names are read, so that a corrupt count fails at the end of the input
+				ids = new int[Math.min(n, 64)];
+				names = new String[ids.length];
+				for (int i = 0; i < n; i++) {
+					if (i == ids.length) {
+						int size = (int) Math.min(n, i * 2L);
+						ids = Arrays.copyOf(ids, size);
+						names = Arrays.copyOf(names, size);
+					}
+					names[i] = string();
+					ids[i] = symbols.id(names[i]);
+				}
+				for (;;) {
+					int token = read();
+					switch (token) {
+					case EOF:
+						return;
+					case START:
+						int symbol = varint();
+						dispatcher.start(ids[symbol], names[symbol], varint());
+						break;
+					case END:
+						dispatcher.end();
+						break;
+					default:
+						if (token >= TEXT && token <= TEXT + NEW_ENUM) {
+							dispatcher.text(value(token - TEXT));
+						} else if (token >= ATTRIBUTE && token < TEXT) {
+							symbol = varint();
+							dispatcher.attribute(ids[symbol], names[symbol], value(token - ATTRIBUTE));
+						} else {
+							throw new IOException("Invalid token " + token);
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException(e.toString(), e);
+			}
+		}
+
+		private Object value(int kind) throws IOException {
+			switch (kind) {
+			case INT:
+				long n = varlong();
+				return (n >>> 1) ^ -(n & 1);
+			case ENUM:
+				return enums.get(varint());
+			case NEW_ENUM:
+				String value = string();
+				enums.add(value);
+				return value;
+			default:
+				return string();
+			}
+		}
+
+		private String string() throws IOException {
+			int length = varint();
+			if (length < 0) throw new IOException("Invalid string length " + length);
+			if (limit - pos < length) {
+				System.arraycopy(buf, pos, buf, 0, limit - pos);
+				limit -= pos;
+				pos = 0;
+				while (limit < length) {
+					// grown as bytes arrive, so that a corrupt length fails at the end of the input
+					if (limit == buf.length) buf = Arrays.copyOf(buf, (int) Math.min(length, buf.length * 2L));
+					int n = in.read(buf, limit, buf.length - limit);
+					if (n < 0) throw new IOException("Unexpected end of document");
+					limit += n;
+				}
+			}
+			String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+			pos += length;
+			return s;
+		}
+
+		private int varint() throws IOException {
+			return (int) varlong();
+		}
+
+		private long varlong() throws IOException {
+			long n = 0;
+			for (int shift = 0; ; shift += 7) {
+				int b = read();
+				n |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return n;
+			}
+		}
+
+		private int read() throws IOException {
+			if (pos == limit) {
+				pos = 0;
+				limit = in.read(buf, 0, buf.length);
+				if (limit <= 0) {
+					limit = 0;
+					throw new IOException("Unexpected end of document");
+				}
+			}
+			return buf[pos++] & 0xFF;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.util.Arrays;
+
+/**
+ * A compact in-memory document for a schema, an alternative to a DOM Document
+ * <p>
+ * Nodes are stored in parallel <code>int</code> arrays, indexed by node number:
+ * element names are {@link Symbols} ids of the schema, the structure is held as
+ * first-child and next-sibling links, and the characters of all text and attribute
+ * values are kept in one shared buffer. A node costs 20 bytes and an attribute 16,
+ * plus two bytes per character, and there are no per-node objects.
+ * </p>
+ * <p>
+ * A tree is built through a schema instance bound to it by {@link DocBinder#bind(CompactTree)},
+ * and {@link #replay(Object)} calls any implementation of the schema as a parser would.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public final class CompactTree<T> {
+
+	private static final int NONE = -1, TEXT = -2;
+	private static final int ADDED = 0x40000000, SYMBOL = ADDED - 1;
+
+	private final Schema<T> schema;
+	private final Symbols symbols;
+
+	/** The symbol id of each element, with the ADDED bit once it has a parent, or TEXT */
+	private int[] names = new int[64];
+	/** The first child of each element, or the offset of a text node's characters */
+	private int[] first = new int[64];
+	/** The last child of each element, or the length of a text node's characters */
+	private int[] last = new int[64];
+	private int[] next = new int[64];
+	private int[] attributes = new int[64];
+	private int nodes;
+
+	private int[] attrNames = new int[16];
+	private int[] attrStart = new int[16];
+	private int[] attrLength = new int[16];
+	private int[] attrNext = new int[16];
+	private int attrs;
+
+	private char[] chars = new char[1024];
+	private int length;
+
+	private int root = NONE;
+	private Writer writer;
+
+	public CompactTree(Class<T> definition) {
+		this(Schema.of(definition));
+	}
+
+	public CompactTree(Schema<T> schema) {
+		this.schema = schema;
+		this.symbols = schema.symbols();
+	}
+
+	Schema<T> schema() {
+		return schema;
+	}
+
+	Generated.Writer writer() {
+		if (writer == null) writer = new Writer();
+		return writer;
+	}
+
+	/**
+	 * @return The number of element and text nodes in the tree
+	 */
+	public int size() {
+		return nodes;
+	}
+
+	/**
+	 * Passes the document to a schema implementation, calling it as a parser would
+	 * for the same document with {@link Whitespace#PRESERVE}
+	 *
+	 * @param handler The schema implementation
+	 * @throws Exception If the implementation throws an exception
+	 */
+	public void replay(T handler) throws Exception {
+		if (root == NONE) throw new IllegalStateException("The tree has no document element");
+		Dispatcher dispatcher = new Dispatcher(schema, handler);
+		dispatcher.whitespace(Whitespace.PRESERVE);
+		replay(dispatcher, root);
+	}
+
+	private void replay(Dispatcher dispatcher, int node) throws Exception {
+		int count = 0;
+		for (int a = attributes[node]; a != NONE; a = attrNext[a]) count++;
+		int name = names[node] & SYMBOL;
+		dispatcher.start(name, symbols.name(name), count);
+		for (int a = attributes[node]; a != NONE; a = attrNext[a]) {
+			dispatcher.attribute(attrNames[a], symbols.name(attrNames[a]), chars, attrStart[a], attrLength[a]);
+		}
+		for (int child = first[node]; child != NONE; child = next[child]) {
+			if (names[child] == TEXT) {
+				dispatcher.characters(chars, first[child], last[child]);
+			} else {
+				replay(dispatcher, child);
+			}
+		}
+		dispatcher.end();
+	}
+
+	private int node(int name) {
+		if (nodes == names.length) {
+			int size = nodes + (nodes >> 1);
+			names = Arrays.copyOf(names, size);
+			first = Arrays.copyOf(first, size);
+			last = Arrays.copyOf(last, size);
+			next = Arrays.copyOf(next, size);
+			attributes = Arrays.copyOf(attributes, size);
+		}
+		int node = nodes++;
+		names[node] = name;
+		first[node] = last[node] = next[node] = attributes[node] = NONE;
+		return node;
+	}
+
+	private int chars(String text) {
+		int start = length, n = text.length();
+		if (length + n > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(chars.length + (chars.length >> 1), length + n));
+		}
+		text.getChars(0, n, chars, length);
+		length += n;
+		return start;
+	}
+
+	private void append(int parent, int child) {
+		if (last[parent] == NONE) {
+			first[parent] = child;
+		} else {
+			next[last[parent]] = child;
+		}
+		last[parent] = child;
+	}
+
+	private int number(Object element) {
+		int node = (Integer) element;
+		if (names[node] == TEXT) throw new IllegalArgumentException("Not an element");
+		return node;
+	}
+
+	/**
+	 * Adds to the tree for {@link DocBinder} and generated writers.
+	 * Elements are represented by their node numbers
+	 */
+	private final class Writer implements Generated.Writer {
+
+		public Object element(String name) {
+			int id = symbols.id(name);
+			if (id < 0) throw new IllegalArgumentException("Name " + name + " is not part of " + schema);
+			return node(id);
+		}
+
+		public void attribute(Object element, String name, String value) {
+			int node = number(element), id = symbols.id(name);
+			if (id < 0) throw new IllegalArgumentException("Name " + name + " is not part of " + schema);
+			int a = attributes[node], prev = NONE;
+			for (; a != NONE && attrNames[a] != id; a = attrNext[a]) prev = a;
+			if (a == NONE) {
+				if (attrs == attrNames.length) {
+					int size = attrs + (attrs >> 1);
+					attrNames = Arrays.copyOf(attrNames, size);
+					attrStart = Arrays.copyOf(attrStart, size);
+					attrLength = Arrays.copyOf(attrLength, size);
+					attrNext = Arrays.copyOf(attrNext, size);
+				}
+				a = attrs++;
+				attrNames[a] = id;
+				attrNext[a] = NONE;
+				if (prev == NONE) {
+					attributes[node] = a;
+				} else {
+					attrNext[prev] = a;
+				}
+			}
+			attrStart[a] = chars(value);
+			attrLength[a] = value.length();
+		}
+
+		public void text(Object element, String text) {
+			int parent = number(element);
+			int node = node(TEXT);
+			first[node] = chars(text);
+			last[node] = text.length();
+			append(parent, node);
+		}
+
+		public void child(Object parent, Object child) {
+			int node = number(child);
+			if ((names[node] & ADDED) != 0) {
+				throw new IllegalStateException("Element " + symbols.name(names[node] & SYMBOL) + " has already been added");
+			}
+			names[node] |= ADDED;
+			if (parent == null) {
+				if (root != NONE) throw new IllegalStateException("The document element has already been set");
+				root = node;
+			} else {
+				append(number(parent), node);
+			}
+		}
+	}
+}
@@ -0,0 +1,32 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+/**
+ * Converts attribute values and element text to the parameter type of a schema method
+ *
+ * @see Converters
+ * @author gilesjb
+ */
+public interface Converter<T> {
+
+	/**
+	 * @param value The string value
+	 * @return The converted value
+	 * @throws IllegalArgumentException if the value cannot be converted
+	 */
+	T convert(String value) throws IllegalArgumentException;
+}
@@ -0,0 +1,327 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The registry of {@link Converter}s used by schemas
+ * <p>
+ * A Schema resolves one converter for the parameter type of each attribute,
+ * text and text-node factory method when it is compiled.
+ * Converters registered with {@link #register(Class, Converter)} take precedence;
+ * otherwise a built-in converter is chosen:
+ * </p>
+ * <ul>
+ * <li>String and CharSequence parameters are passed the value itself</li>
+ * <li>Primitive and wrapper types are parsed directly, as by <code>Integer.valueOf(String)</code></li>
+ * <li>Enums are looked up by <code>toString()</code>, then by name</li>
+ * <li>Classes are loaded with <code>Class.forName</code> and cached</li>
+ * <li>Any other type must have a static <code>valueOf(String)</code> method</li>
+ * </ul>
+ * <p>
+ * An empty string that cannot be converted converts to null,
+ * and null converts to null for all reference types.
+ * Converters must be registered before the schemas that use them are compiled.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public final class Converters {
+
+	private static final ConcurrentMap<Class<?>, Converter<?>> registered = new ConcurrentHashMap<Class<?>, Converter<?>>();
+
+	private static final ClassValue<Converter<?>> builtin = new ClassValue<Converter<?>>() {
+		@Override protected Converter<?> computeValue(Class<?> type) {
+			return create(type);
+		}
+	};
+
+	private Converters() {}
+
+	/**
+	 * Registers a converter for a type, replacing any built-in converter
+	 *
+	 * @param type The parameter type
+	 * @param converter The converter
+	 */
+	public static <T> void register(Class<T> type, Converter<? extends T> converter) {
+		registered.put(type, converter);
+	}
+
+	/**
+	 * Gets the converter for a type
+	 *
+	 * @param type The parameter type
+	 * @return The registered converter for the type, or the built-in one
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Converter<T> of(Class<T> type) {
+		Converter<?> converter = registered.get(type);
+		return (Converter<T>) (converter != null? converter : builtin.get(type));
+	}
+
+	/**
+	 * @return true if a converter has been registered for the type
+	 */
+	static boolean isRegistered(Class<?> type) {
+		return registered.containsKey(type);
+	}
+
+	/**
+	 * Parses an <code>int</code> as {@link Integer#parseInt(String)} does.
+	 * Short decimal numbers are parsed from the characters; others are passed to the JDK
+	 *
+	 * @throws NumberFormatException
+	 */
+	static int parseInt(CharSequence s) {
+		int n = s.length(), i = n > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')? 1 : 0;
+		if (n - i < 1 || n - i > 9) return Integer.parseInt(s.toString());
+		int value = 0;
+		for (; i < n; i++) {
+			int d = s.charAt(i) - '0';
+			if (d < 0 || d > 9) return Integer.parseInt(s.toString());
+			value = value * 10 + d;
+		}
+		return s.charAt(0) == '-'? -value : value;
+	}
+
+	/**
+	 * Parses a <code>long</code> as {@link Long#parseLong(String)} does
+	 *
+	 * @throws NumberFormatException
+	 */
+	static long parseLong(CharSequence s) {
+		int n = s.length(), i = n > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')? 1 : 0;
+		if (n - i < 1 || n - i > 18) return Long.parseLong(s.toString());
+		long value = 0;
+		for (; i < n; i++) {
+			int d = s.charAt(i) - '0';
+			if (d < 0 || d > 9) return Long.parseLong(s.toString());
+			value = value * 10 + d;
+		}
+		return s.charAt(0) == '-'? -value : value;
+	}
+
+	private static final double[] POWERS = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/**
+	 * Parses a <code>double</code> as {@link Double#parseDouble(String)} does.
+	 * Plain decimals of up to 15 digits, such as prices, are exactly representable as a long
+	 * divided by a power of ten that is itself exact, so one division rounds them correctly;
+	 * other forms are passed to the JDK
+	 *
+	 * @throws NumberFormatException
+	 */
+	static double parseDouble(CharSequence s) {
+		int n = s.length(), i = n > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')? 1 : 0;
+		long mantissa = 0;
+		int digits = 0, scale = -1;
+		for (; i < n; i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				if (++digits > 15) return Double.parseDouble(s.toString());
+				if (scale >= 0) scale++;
+			} else if (c == '.' && scale < 0) {
+				scale = 0;
+			} else {
+				return Double.parseDouble(s.toString());
+			}
+		}
+		if (digits == 0) return Double.parseDouble(s.toString());
+		double value = scale > 0? mantissa / POWERS[scale] : mantissa;
+		return s.charAt(0) == '-'? -value : value;
+	}
+
+	/**
+	 * Parses a <code>boolean</code> as {@link Boolean#parseBoolean(String)} does
+	 */
+	static boolean parseBoolean(CharSequence s) {
+		if (s.length() != 4) return false;
+		for (int i = 0; i < 4; i++) {
+			if (Character.toLowerCase(s.charAt(i)) != "true".charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private static Converter<?> create(Class<?> type) {
+		if (type == CharSequence.class) return new Converter<CharSequence>() {
+			public CharSequence convert(String value) {
+				return value;
+			}
+		};
+		if (type == String.class) return new Converter<String>() {
+			public String convert(String value) {
+				return value;
+			}
+		};
+		if (type == int.class || type == Integer.class) return new Parser<Integer>(type) {
+			Integer parse(String value) {
+				return Integer.valueOf(value);
+			}
+		};
+		if (type == long.class || type == Long.class) return new Parser<Long>(type) {
+			Long parse(String value) {
+				return Long.valueOf(value);
+			}
+		};
+		if (type == short.class || type == Short.class) return new Parser<Short>(type) {
+			Short parse(String value) {
+				return Short.valueOf(value);
+			}
+		};
+		if (type == byte.class || type == Byte.class) return new Parser<Byte>(type) {
+			Byte parse(String value) {
+				return Byte.valueOf(value);
+			}
+		};
+		if (type == double.class || type == Double.class) return new Parser<Double>(type) {
+			Double parse(String value) {
+				return Double.valueOf(value);
+			}
+		};
+		if (type == float.class || type == Float.class) return new Parser<Float>(type) {
+			Float parse(String value) {
+				return Float.valueOf(value);
+			}
+		};
+		if (type == boolean.class || type == Boolean.class) return new Parser<Boolean>(type) {
+			Boolean parse(String value) {
+				return Boolean.valueOf(value);
+			}
+		};
+		if (type == char.class || type == Character.class) return new Parser<Character>(type) {
+			Character parse(String value) {
+				if (value.length() != 1) throw new IllegalArgumentException("Not a single character");
+				return value.charAt(0);
+			}
+		};
+		if (type == Class.class) return new ClassConverter();
+		if (type.isEnum()) return new EnumConverter(type);
+		return new ValueOf(type);
+	}
+
+	/**
+	 * The base class of the built-in converters,
+	 * which handles null and empty values and reports failures
+	 */
+	private static abstract class Parser<T> implements Converter<T> {
+		final Class<?> type;
+
+		Parser(Class<?> type) {
+			this.type = type;
+		}
+
+		abstract T parse(String value) throws Exception;
+
+		public T convert(String value) throws IllegalArgumentException {
+			if (value == null && !type.isPrimitive()) {
+				return null;
+			}
+			try {
+				return parse(value);
+			} catch (Exception e) {
+				if ("".equals(value))
+					return null;
+				throw new IllegalArgumentException("Not able to construct "
+						+ type.getName() + " from value: " + value, e);
+			}
+		}
+	}
+
+	private static final class EnumConverter extends Parser<Object> {
+		private final Map<String, Object> constants = new HashMap<String, Object>();
+
+		EnumConverter(Class<?> type) {
+			super(type);
+			Object[] values = type.getEnumConstants();
+			for (int i = values.length - 1; i >= 0; i--) {
+				constants.put(values[i].toString(), values[i]);
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Object parse(String value) {
+			Object constant = constants.get(value);
+			return constant != null? constant : Enum.valueOf((Class) type, value);
+		}
+	}
+
+	private static final class ClassConverter implements Converter<Class<?>> {
+		private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+
+		public Class<?> convert(String value) {
+			if (value == null) return null;
+			Class<?> c = classes.get(value);
+			if (c == null) {
+				try {
+					c = Class.forName(value);
+				} catch (ClassNotFoundException e) {
+					throw new RuntimeException(e);
+				}
+				classes.putIfAbsent(value, c);
+			}
+			return c;
+		}
+	}
+
+	/**
+	 * Calls a static <code>valueOf(String)</code> method through a method handle
+	 * that is looked up once
+	 */
+	private static final class ValueOf extends Parser<Object> {
+		private final MethodHandle valueOf;
+
+		ValueOf(Class<?> type) {
+			super(type);
+			MethodHandle handle = null;
+			try {
+				java.lang.reflect.Method m = type.getMethod("valueOf", String.class);
+				if (Modifier.isStatic(m.getModifiers())) {
+					handle = MethodHandles.publicLookup().unreflect(m)
+							.asType(MethodType.methodType(Object.class, String.class));
+				}
+			} catch (Exception e) {}
+			this.valueOf = handle;
+		}
+
+		Object parse(String value) throws Exception {
+			if (valueOf == null) {
+				throw new NoSuchMethodException(type.getName() + ".valueOf(String)");
+			}
+			try {
+				return (Object) valueOf.invokeExact(value);
+			} catch (Exception e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
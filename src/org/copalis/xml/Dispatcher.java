@@ -0,0 +1,459 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Converts parser events into calls to a schema implementation.
+ * This is the common core of the parser front ends such as
+ * {@link SAXHandler} and {@link StaxReader}.
+ * <p>
+ * The front end reports each element in the schema namespace by calling
+ * {@link #start(String, int)}, then {@link #attribute(String, String)} once
+ * for each of its attributes, followed by its content and finally {@link #end()}.
+ * </p>
+ * <p>
+ * Character data is accumulated in a reusable buffer until the next tag,
+ * so each run of text is passed on once, after the {@link Whitespace} mode has been applied.
+ * Runs, and attribute values reported as characters, are passed to
+ * {@link Schema.Binding#invokeText(Object, CharSequence)} as a view of the buffer,
+ * so a String is only created for parameters that need one.
+ * </p>
+ * <p>
+ * Names are resolved to ids through the schema's {@link Symbols} table,
+ * and factories and attributes are looked up by id.
+ * The open elements are kept in a growable array of mutable frames that are
+ * reused from one element to the next, so once the array has grown to the depth
+ * of the document the dispatcher itself allocates nothing per element.
+ * </p>
+ *
+ * @author gilesjb
+ */
+final class Dispatcher {
+	
+	private final Schema<?> schema;
+	private final Object handler;
+	private final Symbols symbols;
+	
+	private Frame[] frames = new Frame[16];
+	private int top;
+	
+	private final List<Node> roots;
+	private Records<?> records;
+	
+	private Whitespace whitespace = Whitespace.TRIM;
+	private char[] text = new char[256];
+	private int length;
+	private final Chars run = new Chars();
+	
+	private SchemaListener listener;
+	
+	/** The Parse event of the document being read, if it is being recorded */
+	private Object event;
+	/** Whether elements are timed for SlowElement events */
+	private boolean slow;
+	private long elements, characters;
+	
+	Dispatcher(Schema<?> schema, Object handler) {
+		this(schema, handler, null);
+	}
+	
+	/**
+	 * Constructs a Dispatcher that collects the top-level nodes instead of
+	 * passing them to the handler's root-node method
+	 * 
+	 * @param roots The list the completed top-level nodes are added to,
+	 * or null to pass them to the root-node method
+	 */
+	Dispatcher(Schema<?> schema, Object handler, List<Node> roots) {
+		this.schema = schema;
+		this.handler = handler;
+		this.roots = roots;
+		this.symbols = schema.symbols();
+		
+		frames[0] = new Frame();
+		frames[0].node(schema.node(schema.definition()), handler);
+	}
+	
+	/**
+	 * @return The number of elements that have been started but not ended
+	 */
+	int depth() {
+		return Math.max(top, 0);
+	}
+	
+	void whitespace(Whitespace mode) {
+		this.whitespace = mode;
+	}
+	
+	/**
+	 * @param listener Receives instrumentation events, or null to measure nothing
+	 */
+	void listener(SchemaListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * @return The time a schema method call or an element starts, if there is a listener
+	 */
+	private long clock() {
+		return listener != null? System.nanoTime() : 0;
+	}
+	
+	/**
+	 * Starts the Parse flight recorder event of a document, if it is enabled
+	 */
+	void startDocument() {
+		elements = characters = 0;
+		slow = FlightEvents.SLOW_ELEMENT.isEnabled();
+		event = FlightEvents.PARSE.begin();
+	}
+	
+	/**
+	 * Commits the Parse event started by {@link #startDocument()}
+	 * 
+	 * @param bytes The length of the document, or 0 if it is not known
+	 */
+	void endDocument(long bytes) {
+		FlightEvents.PARSE.commit(event, schema.definition().getName(), elements, characters, bytes);
+		event = null;
+	}
+	
+	private void invoked(Schema.Binding method, long start) {
+		if (listener != null) listener.invoked(method, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Passes completed nodes of a type to a consumer instead of to their parents
+	 * 
+	 * @param type A node interface of the schema
+	 * @param consumer The consumer, or null to pass the nodes to their parents
+	 */
+	<R> void records(Class<R> type, Consumer<? super R> consumer) {
+		if (consumer == null) {
+			records = null;
+			return;
+		}
+		if (schema.node(type) == null) {
+			throw new IllegalArgumentException(type.getName() + " is not a node type of " + schema);
+		}
+		records = new Records<R>(type, consumer);
+	}
+	
+	void start(String name, int attributes) throws Exception {
+		start(symbols.id(name), name, attributes);
+	}
+	
+	/**
+	 * Starts an element whose name has already been resolved
+	 * 
+	 * @param symbol The symbol id of the name, or -1 if the schema does not use it
+	 * @param name The name
+	 * @param attributes The number of attributes
+	 */
+	void start(int symbol, String name, int attributes) throws Exception {
+		flush();
+		if (frames[top].factory != null) {
+			throw new UnsupportedOperationException("Text node " + frames[top].factory.name() + " cannot contain " + name);
+		}
+		elements++;
+		long started = listener != null || slow? System.nanoTime() : 0;
+		Schema.Binding factory = attributes == 0? schema.textNodeFactory(symbol) : null;
+		if (factory != null) {
+			push().text(factory);
+		} else {
+			factory = schema.factory(symbol);
+			if (factory == null) throw new NoSuchMethodException("No factory method for " + name);
+			Object node = factory.invoke(handler);
+			invoked(factory, started);
+			push().node(factory.node(), node);
+		}
+		if (listener != null || slow) frames[top].started(name, started);
+	}
+	
+	void attribute(String name, String value) throws Exception {
+		attribute(symbols.id(name), name, value);
+	}
+	
+	/**
+	 * Sets an attribute whose name has already been resolved
+	 * 
+	 * @param symbol The symbol id of the name, or -1 if the schema does not use it
+	 * @param value The value: a String, or a decoded value as described in {@link #convert(Schema.Binding, Object)}
+	 */
+	void attribute(int symbol, String name, Object value) throws Exception {
+		Frame frame = frames[top];
+		if (frame.factory != null) {
+			throw new UnsupportedOperationException("Text node " + frame.factory.name() + " cannot have attributes");
+		}
+		Schema.Binding attr = frame.type != null? frame.type.attribute(symbol) : null;
+		if (attr == null) throw new NoSuchMethodException("No attribute method " + frame.type + '.' + name);
+		if (listener != null) {
+			listener.attribute(name, value instanceof CharSequence? ((CharSequence) value).length() : value.toString().length());
+		}
+		long started = clock();
+		Object node = value instanceof CharSequence
+				? attr.invokeText(frame.node, (CharSequence) value) : attr.invoke(frame.node, convert(attr, value));
+		invoked(attr, started);
+		frame.node(attr.node(), node);
+	}
+	
+	/**
+	 * Sets an attribute whose value is held in a character buffer
+	 * 
+	 * @param symbol The symbol id of the name, or -1 if the schema does not use it
+	 */
+	void attribute(int symbol, String name, char[] ch, int start, int length) throws Exception {
+		run.set(ch, start, length);
+		attribute(symbol, name, run);
+	}
+	
+	void characters(char ch[], int start, int length) {
+		if (this.length + length > text.length) {
+			text = Arrays.copyOf(text, Math.max(text.length * 2, this.length + length));
+		}
+		System.arraycopy(ch, start, text, this.length, length);
+		this.length += length;
+		characters += length;
+	}
+	
+	/**
+	 * Passes the current run of text to the element it belongs to
+	 */
+	private void flush() throws Exception {
+		if (length == 0) return;
+		int n = length;
+		length = 0;
+		if (whitespace.apply(text, n, run)) text(run);
+	}
+	
+	/**
+	 * Passes a complete run of text to the current element, without applying the whitespace mode
+	 * 
+	 * @param value The text: a String, or a decoded value as described in {@link #convert(Schema.Binding, Object)}
+	 */
+	void text(Object value) throws Exception {
+		Frame frame = frames[top];
+		if (listener != null) {
+			listener.text(value instanceof CharSequence? ((CharSequence) value).length() : value.toString().length());
+		}
+		if (frame.factory != null) {
+			frame.text = value == run? run.toString() : value;
+		} else {
+			Schema.Binding method = frame.type != null? frame.type.text() : null;
+			if (method == null) throw new NoSuchMethodException("No text method in " + frame.type);
+			long started = clock();
+			Object node = value instanceof CharSequence
+					? method.invokeText(frame.node, (CharSequence) value) : method.invoke(frame.node, convert(method, value));
+			invoked(method, started);
+			frame.node(method.node(), node);
+		}
+	}
+	
+	/**
+	 * Converts a value to the parameter type of a method. Strings are converted as parsed text is;
+	 * decoded Longs are narrowed directly to integral parameter types they fit in, and are otherwise
+	 * converted from their string form, so that a value out of range fails as its text would
+	 */
+	static Object convert(Schema.Binding binding, Object value) {
+		if (value instanceof String) return binding.convert((String) value);
+		Class<?> type = binding.parameterType();
+		if (value instanceof Long) {
+			long n = (Long) value;
+			if (type == long.class || type == Long.class) return value;
+			if ((type == int.class || type == Integer.class) && n == (int) n) return (int) n;
+			if ((type == short.class || type == Short.class) && n == (short) n) return (short) n;
+			if ((type == byte.class || type == Byte.class) && n == (byte) n) return (byte) n;
+		}
+		return binding.convert(value.toString());
+	}
+	
+	void end() throws Exception {
+		Frame frame = frames[top];
+		Schema.NodeType childType;
+		Object child;
+		if (frame.factory != null) {
+			// the text of a text node is passed straight from the buffer
+			int n = length;
+			length = 0;
+			Object value = n > 0 && whitespace.apply(text, n, run)? run : frame.text;
+			if (listener != null && value == run) listener.text(run.length());
+			long started = clock();
+			childType = frame.factory.node();
+			child = value instanceof CharSequence? frame.factory.invokeText(handler, (CharSequence) value)
+					: frame.factory.invoke(handler, convert(frame.factory, value));
+			invoked(frame.factory, started);
+		} else {
+			flush();
+			childType = frame.type;
+			child = frame.node;
+		}
+		if (listener != null || slow) {
+			long elapsed = System.nanoTime() - frame.started;
+			if (listener != null) listener.element(frame.name, elapsed);
+			if (slow && elapsed >= FlightEvents.SLOW_NANOS) {
+				FlightEvents.SLOW_ELEMENT.record(schema.definition().getName(), frame.name, elapsed);
+			}
+		}
+		top--;
+		frame.clear();
+		
+		if (records != null && records.accept(childType, child)) {
+			return;
+		} else if (top == 0 && roots != null) {
+			roots.add(new Node(childType, child));
+		} else {
+			child(childType, child);
+		}
+	}
+	
+	/**
+	 * Adds a node that has already been built to the current element,
+	 * as if it had just been parsed
+	 */
+	void child(Schema.NodeType childType, Object child) throws Exception {
+		Frame parent = frames[top];
+		Schema.Binding m = parent.type != null && childType != null? parent.type.child(childType.type()) : null;
+		if (m == null) throw new NoSuchMethodException("No child method for " + childType + " found in " + parent.type);
+		long started = clock();
+		Object obj = m.invoke(parent.node, child);
+		invoked(m, started);
+		if (m.returnType() != void.class) {
+			parent.node(m.node(), obj);
+		} else {
+			parent.clear();
+			top--;
+		}
+	}
+	
+	private Frame push() {
+		if (++top == frames.length) {
+			frames = Arrays.copyOf(frames, frames.length * 2);
+		}
+		Frame frame = frames[top];
+		if (frame == null) {
+			frame = frames[top] = new Frame();
+		}
+		return frame;
+	}
+	
+	/**
+	 * A record node type and the consumer of its nodes
+	 */
+	private static final class Records<R> {
+		private final Class<R> type;
+		private final Consumer<? super R> consumer;
+		
+		Records(Class<R> type, Consumer<? super R> consumer) {
+			this.type = type;
+			this.consumer = consumer;
+		}
+		
+		boolean accept(Schema.NodeType childType, Object child) {
+			if (childType == null || !type.isAssignableFrom(childType.type())) return false;
+			consumer.accept(type.cast(child));
+			return true;
+		}
+	}
+	
+	/**
+	 * A view of characters in a buffer, which is reused for each value
+	 */
+	static final class Chars implements CharSequence {
+		private char[] ch;
+		private int start, length;
+		
+		/**
+		 * @return true
+		 */
+		boolean set(char[] ch, int start, int length) {
+			this.ch = ch;
+			this.start = start;
+			this.length = length;
+			return true;
+		}
+		
+		public int length() {
+			return length;
+		}
+		
+		public char charAt(int index) {
+			if (index < 0 || index >= length) throw new IndexOutOfBoundsException(String.valueOf(index));
+			return ch[start + index];
+		}
+		
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException(start + ", " + end);
+			return new String(ch, this.start + start, end - start);
+		}
+		
+		public String toString() {
+			return new String(ch, start, length);
+		}
+	}
+	
+	/**
+	 * A completed node and its node type
+	 */
+	static final class Node {
+		final Schema.NodeType type;
+		final Object node;
+		
+		Node(Schema.NodeType type, Object node) {
+			this.type = type;
+			this.node = node;
+		}
+	}
+	
+	/**
+	 * An open element: either a node, with the node type and the object
+	 * returned by the last method called on it, or a text node,
+	 * with its factory and the text collected so far
+	 */
+	private static final class Frame {
+		Schema.NodeType type;
+		Object node;
+		Schema.Binding factory;
+		Object text;
+		String name;
+		long started;
+		
+		void started(String name, long time) {
+			this.name = name;
+			this.started = time;
+		}
+		
+		void node(Schema.NodeType type, Object node) {
+			this.type = type;
+			this.node = node;
+		}
+		
+		void text(Schema.Binding factory) {
+			this.factory = factory;
+			this.text = "";
+		}
+		
+		void clear() {
+			type = null;
+			node = null;
+			factory = null;
+			text = null;
+		}
+	}
+}
@@ -18,62 +18,86 @@ package org.copalis.xml;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 /**
- * A dynamic proxy for schema interfaces that writes to a DOM Document
+ * A dynamic proxy for schema interfaces that writes to a DOM Document,
+ * or to a {@link CompactTree}
+ * <p>
+ * Proxy classes are generated once per node interface and reused for every element,
+ * and each call is dispatched from the compiled {@link Schema} bindings.
+ * If classes have been generated for the schema by {@link SchemaProcessor},
+ * the generated writer is bound to the document instead of a proxy.
+ * </p>
+ * <p>
+ * A document bound with a {@link SchemaListener} reports the elements, attributes
+ * and text written to it, and the time taken by each schema method. It is always bound
+ * through proxies, even if classes have been generated, so that the method calls can be timed.
+ * </p>
  *
  * @author gilesjb
  */
 public class DocBinder implements InvocationHandler {
 	
 	private final Schema<?> schema;
-	private final Document doc;
-	private final Node node;
-	private final Element elem;
+	final Generated.Writer writer;
+	final Object node;
+	private final SchemaListener listener;
 	
-	DocBinder(Schema<?> schema, Document doc, Node node, Element elem) {
+	DocBinder(Schema<?> schema, Generated.Writer writer, Object node) {
 		this.schema = schema;
-		this.doc = doc;
+		this.writer = writer;
 		this.node = node;
-		this.elem = elem;
-	}
-	
-	private DocBinder bind(Schema<?> schema, Element val) {
-		return new DocBinder(schema, doc, val, val);
+		this.listener = writer instanceof ListeningWriter? ((ListeningWriter) writer).listener : null;
 	}
 	
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 		if (Object.class == method.getDeclaringClass()) {
 			return method.invoke(this, args);
 		}
-		switch (schema.typeOf(method)) {
+		Schema.Binding binding = schema.binding(method);
+		if (listener == null) return invoke(proxy, binding, args);
+		long started = System.nanoTime();
+		Object result = invoke(proxy, binding, args);
+		listener.invoked(binding, System.nanoTime() - started);
+		return result;
+	}
+	
+	private Object invoke(Object proxy, Schema.Binding binding, Object[] args) {
+		switch (binding.type()) {
 		case CHILD:
-			node.appendChild(((DocBinder) Proxy.getInvocationHandler(args[0])).node);
+			DocBinder child = (DocBinder) Proxy.getInvocationHandler(args[0]);
+			if (child.writer != writer) {
+				throw new IllegalArgumentException("Node belongs to a different document");
+			}
+			writer.child(node, child.node);
 			break;
 		case TEXT:
-			node.appendChild(doc.createTextNode(args[0].toString()));
+			writer.text(node, args[0].toString());
 			break;
 		case TEXT_NODE_FACTORY:
-			Element child = doc.createElementNS(schema.namespace(), method.getName());
-			child.appendChild(doc.createTextNode(args[0].toString()));
-			return proxy(method.getReturnType(), bind(schema, child));
+			Object text = writer.element(binding.name());
+			writer.text(text, args[0].toString());
+			return proxy(binding.node(), new DocBinder(schema, writer, text));
 		case FACTORY:
-			return proxy(method.getReturnType(), bind(schema, doc.createElementNS(
-					schema.namespace(), method.getName())));
+			return proxy(binding.node(), new DocBinder(schema, writer, writer.element(binding.name())));
 		case ATTRIBUTE:
-			elem.setAttributeNS(null, method.getName(), args[0].toString());
+			writer.attribute(node, binding.name(), args[0].toString());
 			break;
 		}
 		return proxy;
 	}
 
-	private static <T> T proxy(Class<T> schema, DocBinder binder) {
-		return schema.cast(Proxy.newProxyInstance(schema.getClassLoader(),
-				new Class<?>[] {schema}, binder));
+	private static Object proxy(Schema.NodeType type, DocBinder binder) {
+		if (type == null) {
+			throw new IllegalArgumentException("Schema node types must be interfaces");
+		}
+		return type.proxy(binder);
 	}
 
 	/**
@@ -86,10 +110,147 @@ public class DocBinder implements InvocationHandler {
 	 * @return A new instance of schema, bound to the document
 	 */
 	public static <T> T bind(Class<T> definition, final Document document) {
-		return bind(new Schema<T>(definition), document);
+		return bind(Schema.of(definition), document);
 	}
 
 	public static <T> T bind(Schema<T> schema, final Document document) {
-		return proxy(schema.definition(), new DocBinder(schema, document, document, null));
+		return bind(schema, new DocWriter(document, schema));
+	}
+
+	/**
+	 * Creates a new instance of a schema bound to a Document,
+	 * which reports what is written to it to a listener
+	 * @param <T>
+	 * @param document An empty Document
+	 * @param listener The listener
+	 * @return A new instance of schema, bound to the document
+	 */
+	public static <T> T bind(Class<T> definition, Document document, SchemaListener listener) {
+		return bind(Schema.of(definition), document, listener);
+	}
+
+	public static <T> T bind(Schema<T> schema, Document document, SchemaListener listener) {
+		// always through proxies, so that each schema method can be timed
+		return schema.definition().cast(proxy(schema.node(schema.definition()),
+				new DocBinder(schema, new ListeningWriter(new DocWriter(document, schema), listener), null)));
+	}
+
+	/**
+	 * Creates a new instance of a schema and binds it to a compact tree.
+	 * Invoking the methods of the created instance will build the tree
+	 * @param <T>
+	 * @param tree An empty tree
+	 * @return A new instance of the tree's schema, bound to the tree
+	 */
+	public static <T> T bind(CompactTree<T> tree) {
+		return bind(tree.schema(), tree.writer());
+	}
+
+	private static <T> T bind(Schema<T> schema, Generated.Writer writer) {
+		Generated generated = schema.generated();
+		if (generated != null) {
+			return schema.definition().cast(generated.bind(writer));
+		}
+		return schema.definition().cast(proxy(schema.node(schema.definition()),
+				new DocBinder(schema, writer, null)));
+	}
+	
+	/**
+	 * Reports what is written through another writer to a listener.
+	 * Each element is timed from its creation until it is added to its parent
+	 */
+	static final class ListeningWriter implements Generated.Writer {
+		final Generated.Writer writer;
+		final SchemaListener listener;
+		/** The elements that have not yet been added to a parent */
+		private final Map<Object, Created> created = new IdentityHashMap<Object, Created>();
+		
+		ListeningWriter(Generated.Writer writer, SchemaListener listener) {
+			this.writer = writer;
+			this.listener = listener;
+		}
+		
+		public Object element(String name) {
+			long started = System.nanoTime();
+			Object element = writer.element(name);
+			created.put(element, new Created(name, started));
+			return element;
+		}
+		
+		public void attribute(Object element, String name, String value) {
+			listener.attribute(name, value.length());
+			writer.attribute(element, name, value);
+		}
+		
+		public void text(Object element, String text) {
+			listener.text(text.length());
+			writer.text(element, text);
+		}
+		
+		public void child(Object parent, Object child) {
+			writer.child(parent, child);
+			Created c = created.remove(child);
+			if (c != null) listener.element(c.name, System.nanoTime() - c.started);
+		}
+		
+		/**
+		 * Takes over the timing of an element that was created by another writer
+		 * and has been moved to this writer's document
+		 */
+		void adopt(Object element, ListeningWriter from) {
+			Created c = from.created.remove(element);
+			if (c != null) created.put(element, c);
+		}
+	}
+	
+	private static final class Created {
+		final String name;
+		final long started;
+		
+		Created(String name, long started) {
+			this.name = name;
+			this.started = started;
+		}
+	}
+	
+	/**
+	 * Builds a Document for a proxy or a generated writer.
+	 * The Bind flight recorder event lasts until the document element is added
+	 */
+	static final class DocWriter implements Generated.Writer {
+		final Document doc;
+		private final Schema<?> schema;
+		private final String namespace;
+		private Object event;
+		private long elements, characters;
+		
+		DocWriter(Document doc, Schema<?> schema) {
+			this.doc = doc;
+			this.schema = schema;
+			this.namespace = schema.namespace();
+			this.event = FlightEvents.BIND.begin();
+		}
+		
+		public Object element(String name) {
+			elements++;
+			return doc.createElementNS(namespace, name);
+		}
+		
+		public void attribute(Object element, String name, String value) {
+			((Element) element).setAttributeNS(null, name, value);
+		}
+		
+		public void text(Object element, String text) {
+			characters += text.length();
+			((Node) element).appendChild(doc.createTextNode(text));
+		}
+		
+		public void child(Object parent, Object child) {
+			(parent != null? (Node) parent : doc).appendChild((Node) child);
+			if (parent == null && event != null) {
+				FlightEvents.BIND.commit(event, schema.definition().getName(), elements, characters);
+				event = null;
+			}
+		}
 	}
 }
@@ -0,0 +1,261 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Java Flight Recorder events for the phases of reading and writing documents
+ * <p>
+ * The events are defined at run time with <code>jdk.jfr.EventFactory</code>,
+ * which is called through reflection so that the library still compiles and runs
+ * on Java 8 without flight recording, where it does nothing. The event types are only created
+ * once the flight recorder has been initialized by a recording; until then each event costs
+ * a call to <code>FlightRecorder.isInitialized()</code>. They appear in recordings under the category
+ * <i>XML</i>, with these names:
+ * </p>
+ * <table border=1>
+ * <tr><th>Event</th><th>Duration</th><th>Fields</th></tr>
+ * <tr><td>org.copalis.xml.Parse</td><td>A document read by {@link SAXHandler} or {@link Utf8Scanner}</td>
+ * <td>schema, elements, characters, bytes</td></tr>
+ * <tr><td>org.copalis.xml.Bind</td><td>A Document built through {@link DocBinder}</td>
+ * <td>schema, elements, characters</td></tr>
+ * <tr><td>org.copalis.xml.Serialize</td><td>A document written by {@link StreamBinder} or {@link Serializer}</td>
+ * <td>schema, elements, bytes</td></tr>
+ * <tr><td>org.copalis.xml.Compile</td><td>The compilation of a {@link Schema}</td>
+ * <td>schema, nodes, symbols, generated</td></tr>
+ * <tr><td>org.copalis.xml.SlowElement</td><td>None; an instant event</td>
+ * <td>schema, element, time</td></tr>
+ * </table>
+ * <p>
+ * SlowElement events are committed by the parsers for each element whose content takes
+ * longer than the threshold set by the system property <code>org.copalis.xml.slowElementMillis</code>,
+ * 10 milliseconds by default, to read and build. Elements are only timed while the event
+ * is enabled in a recording, and the other events cost one check per document when it is not.
+ * </p>
+ * <p>
+ * Serialize events from {@link Serializer} have no schema, and Parse events from {@link SAXHandler}
+ * have a length of 0 bytes, since SAX does not report it.
+ * </p>
+ *
+ * @author gilesjb
+ */
+final class FlightEvents {
+
+	static final long SLOW_NANOS = Long.getLong("org.copalis.xml.slowElementMillis", 10) * 1000000;
+
+	private static final String BYTES = "BYTES", NANOSECONDS = "NANOSECONDS";
+
+	/** <code>FlightRecorder.isInitialized()</code>, or null if flight recording is not available */
+	private static final Method initialized = initialized();
+
+	/** Set once creating the events has failed, after the failure has been logged */
+	private static volatile boolean failed;
+
+	static final FlightEvents PARSE = new FlightEvents("Parse", "XML Parse", "A document parsed into a schema implementation",
+			field(String.class, "schema", "Schema", null),
+			field(long.class, "elements", "Elements", null),
+			field(long.class, "characters", "Characters", null),
+			field(long.class, "bytes", "Bytes", BYTES));
+
+	static final FlightEvents BIND = new FlightEvents("Bind", "XML Bind", "A DOM Document built through a schema",
+			field(String.class, "schema", "Schema", null),
+			field(long.class, "elements", "Elements", null),
+			field(long.class, "characters", "Characters", null));
+
+	static final FlightEvents SERIALIZE = new FlightEvents("Serialize", "XML Serialize", "A document written as UTF-8",
+			field(String.class, "schema", "Schema", null),
+			field(long.class, "elements", "Elements", null),
+			field(long.class, "bytes", "Bytes", BYTES));
+
+	static final FlightEvents COMPILE = new FlightEvents("Compile", "XML Schema Compile", "The compilation of a schema interface",
+			field(String.class, "schema", "Schema", null),
+			field(int.class, "nodes", "Node Types", null),
+			field(int.class, "symbols", "Symbols", null),
+			field(boolean.class, "generated", "Generated Classes", null));
+
+	static final FlightEvents SLOW_ELEMENT = new FlightEvents("SlowElement", "XML Slow Element",
+			"An element that took longer than the threshold to parse and build",
+			field(String.class, "schema", "Schema", null),
+			field(String.class, "element", "Element", null),
+			field(long.class, "time", "Time", NANOSECONDS));
+
+	private final String name, label, description;
+	private final Object[][] fields;
+
+	/** The EventFactory, created once the flight recorder has been initialized */
+	private volatile Object factory;
+	/** The EventType */
+	private Object type;
+
+	private FlightEvents(String name, String label, String description, Object[]... fields) {
+		this.name = name;
+		this.label = label;
+		this.description = description;
+		this.fields = fields;
+	}
+
+	private static Object[] field(Class<?> type, String name, String label, String content) {
+		return new Object[] {type, name, label, content};
+	}
+
+	private static Method initialized() {
+		try {
+			return Class.forName("jdk.jfr.FlightRecorder").getMethod("isInitialized");
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return The event factory, or null if no recording has been started
+	 * or the event cannot be created
+	 */
+	private Object factory() {
+		Object factory = this.factory;
+		if (factory != null) return factory;
+		if (initialized == null || failed) return null;
+		try {
+			if (!(Boolean) initialized.invoke(null)) return null;
+			return create();
+		} catch (Exception | LinkageError e) {
+			failed = true;
+			Logger.getLogger(FlightEvents.class.getName()).log(Level.WARNING,
+					"Cannot create flight recorder events; they will not be recorded", e);
+			return null;
+		}
+	}
+
+	private synchronized Object create() throws Exception {
+		if (factory != null) return factory;
+		List<Object> annotations = Arrays.asList(
+				Jfr.annotation("jdk.jfr.Name", "org.copalis.xml." + name),
+				Jfr.annotation("jdk.jfr.Label", label),
+				Jfr.annotation("jdk.jfr.Description", description),
+				Jfr.annotation("jdk.jfr.Category", new String[] {"XML"}));
+		List<Object> values = new ArrayList<Object>();
+		for (Object[] field : fields) {
+			List<Object> content = new ArrayList<Object>();
+			content.add(Jfr.annotation("jdk.jfr.Label", field[2]));
+			if (field[3] == BYTES) content.add(Jfr.annotation("jdk.jfr.DataAmount", BYTES));
+			if (field[3] == NANOSECONDS) content.add(Jfr.annotation("jdk.jfr.Timespan", NANOSECONDS));
+			values.add(Jfr.value.newInstance(field[0], field[1], content));
+		}
+		Object factory = Jfr.create.invoke(null, annotations, values);
+		type = Jfr.eventType.invoke(factory);
+		return this.factory = factory;
+	}
+
+	/**
+	 * @return true if the event is enabled in a recording
+	 */
+	boolean isEnabled() {
+		Object factory = factory();
+		try {
+			return factory != null && (Boolean) Jfr.isEnabled.invoke(type);
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Starts timing an event
+	 *
+	 * @return The event, or null if it is not enabled
+	 */
+	Object begin() {
+		if (!isEnabled()) return null;
+		try {
+			Object event = Jfr.newEvent.invoke(factory);
+			Jfr.begin.invoke(event);
+			return event;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Ends an event and commits it to the recording
+	 *
+	 * @param event An event returned by {@link #begin()}, or null
+	 * @param values The values of the event's fields, in order
+	 */
+	void commit(Object event, Object... values) {
+		if (event == null) return;
+		try {
+			Jfr.end.invoke(event);
+			for (int i = 0; i < values.length; i++) {
+				Jfr.set.invoke(event, i, values[i]);
+			}
+			Jfr.commit.invoke(event);
+		} catch (Exception e) {}
+	}
+	
+	/**
+	 * Commits an instant event, if it is enabled
+	 * 
+	 * @param values The values of the event's fields, in order
+	 */
+	void record(Object... values) {
+		if (!isEnabled()) return;
+		try {
+			Object event = Jfr.newEvent.invoke(factory);
+			for (int i = 0; i < values.length; i++) {
+				Jfr.set.invoke(event, i, values[i]);
+			}
+			Jfr.commit.invoke(event);
+		} catch (Exception e) {}
+	}
+
+	/**
+	 * The methods of the jdk.jfr API, looked up the first time events are created
+	 */
+	private static final class Jfr {
+		static final Method create, eventType, newEvent, begin, end, commit, set, isEnabled;
+		static final Constructor<?> annotation, value;
+
+		static {
+			try {
+				Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+				Class<?> event = Class.forName("jdk.jfr.Event");
+				create = factory.getMethod("create", List.class, List.class);
+				eventType = factory.getMethod("getEventType");
+				newEvent = factory.getMethod("newEvent");
+				begin = event.getMethod("begin");
+				end = event.getMethod("end");
+				commit = event.getMethod("commit");
+				set = event.getMethod("set", int.class, Object.class);
+				isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+				annotation = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+				value = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		static Object annotation(String type, Object value) throws Exception {
+			return annotation.newInstance((Class<? extends Annotation>) Class.forName(type), value);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+/**
+ * The interface implemented by the dispatcher classes that {@link SchemaProcessor}
+ * generates for schema interfaces annotated with {@link Schema.Generate}
+ * <p>
+ * A generated dispatcher invokes schema methods by index through a <code>switch</code>,
+ * and creates instances of a generated writer class that implements the schema
+ * interface and its node interfaces by calling a {@link Writer}.
+ * Schema, DocBinder, StreamBinder and the parser front ends use the generated classes
+ * when they are present, and fall back to reflection and dynamic proxies otherwise.
+ * </p>
+ * <p>
+ * These types are used by generated code and are not intended to be implemented by hand.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public interface Generated {
+
+	/**
+	 * @return The name of child-node methods the classes were generated with
+	 */
+	String childName();
+
+	/**
+	 * @return The name of text-node methods the classes were generated with
+	 */
+	String textName();
+
+	/**
+	 * @return The signatures of the methods that {@link #invoke(int, Object, Object)} can call,
+	 * in index order, each in the form <code>Declaring.Type.name(Param.Type)</code>
+	 * using canonical class names
+	 */
+	String[] methods();
+
+	/**
+	 * Invokes a schema method
+	 *
+	 * @param method The index of the method's signature in {@link #methods()}
+	 * @param target The object the method is invoked on
+	 * @param arg The parameter value, or null if the method takes none
+	 * @return The method's return value, or null if it is void
+	 * @throws Exception
+	 */
+	Object invoke(int method, Object target, Object arg) throws Exception;
+
+	/**
+	 * Invokes a schema method that takes an <code>int</code>, without boxing the value.
+	 * Generated dispatchers override this and the other primitive forms for the methods
+	 * that take the primitive type; the defaults box the value and call {@link #invoke(int, Object, Object)}
+	 */
+	default Object invokeInt(int method, Object target, int arg) throws Exception {
+		return invoke(method, target, arg);
+	}
+
+	default Object invokeLong(int method, Object target, long arg) throws Exception {
+		return invoke(method, target, arg);
+	}
+
+	default Object invokeDouble(int method, Object target, double arg) throws Exception {
+		return invoke(method, target, arg);
+	}
+
+	default Object invokeBoolean(int method, Object target, boolean arg) throws Exception {
+		return invoke(method, target, arg);
+	}
+
+	/**
+	 * Creates an instance of the generated writer for the schema interface
+	 *
+	 * @param writer The document the instance writes to
+	 * @return An object that implements the schema interface
+	 */
+	Object bind(Writer writer);
+
+	/**
+	 * A document that generated writers add to.
+	 * Elements are represented by whatever objects the implementation chooses
+	 */
+	interface Writer {
+		Object element(String name);
+		void attribute(Object element, String name, String value);
+		void text(Object element, String text);
+
+		/**
+		 * Adds a child element
+		 *
+		 * @param parent The parent element, or null to set the document element
+		 * @param child The child element
+		 */
+		void child(Object parent, Object child);
+	}
+
+	/**
+	 * The base class of the generated node classes
+	 */
+	abstract class Node {
+		protected final Writer writer;
+		protected final Object element;
+
+		protected Node(Writer writer, Object element) {
+			this.writer = writer;
+			this.element = element;
+		}
+
+		/**
+		 * Gets the element of a node that is being added as a child
+		 *
+		 * @param node A node created by the same writer
+		 * @return The node's element
+		 */
+		protected final Object child(Object node) {
+			Node child = (Node) node;
+			if (child.writer != writer) {
+				throw new IllegalArgumentException("Node belongs to a different document");
+			}
+			return child.element;
+		}
+
+		@Override public String toString() {
+			return String.valueOf(element);
+		}
+	}
+}
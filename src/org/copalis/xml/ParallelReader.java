@@ -0,0 +1,462 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Parses a large feed of records on several threads
+ * <p>
+ * The feed must be a document whose document element wraps a sequence of record
+ * elements with the same name. The file is split into chunks at the start tags of
+ * records, found by scanning the bytes for <code>&lt;</code><i>record</i>, and each
+ * chunk is memory-mapped and parsed on a fork-join pool as a document of its own,
+ * made of the bytes before the first record, the chunk, and the bytes after the last record.
+ * The feed must use an encoding in which markup is ASCII, such as UTF-8 or ISO-8859-1,
+ * and the record element's start tag must not appear inside comments, CDATA sections
+ * or other records. Any other elements of the document element must come before the first record.
+ * If a chunk cannot be parsed, the chunks that have not yet been started are cancelled
+ * and its exception is thrown.
+ * </p>
+ * <p>
+ * The records can be read in two ways:
+ * </p>
+ * <ul>
+ * <li>{@link #read(File, Supplier)} parses each chunk into its own schema implementation,
+ * as though the chunk's records were the whole feed. The elements before the first record
+ * are parsed into every implementation</li>
+ * <li>{@link #read(File, Object)} builds the records in parallel with a single schema
+ * implementation, whose factory methods must therefore be thread-safe, and then adds them
+ * to the document element in document order on the calling thread</li>
+ * </ul>
+ *
+ * @author gilesjb
+ */
+public class ParallelReader<T> {
+
+	private static final int BLOCK = 64 * 1024;
+
+	private final Schema<T> schema;
+	private final String name;
+	private final byte[] record;
+
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private long chunkSize = 64L * 1024 * 1024;
+	private Whitespace whitespace = Whitespace.TRIM;
+
+	/**
+	 * @param definition A schema interface
+	 * @param record The name of the record elements, as it appears in their tags
+	 */
+	public ParallelReader(Class<T> definition, String record) {
+		this(Schema.of(definition), record);
+	}
+
+	public ParallelReader(Schema<T> schema, String record) {
+		this.schema = schema;
+		this.name = record;
+		this.record = ('<' + record).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Sets the pool chunks are parsed on. The default is the common pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the approximate size of the chunks. The default is 64MB
+	 *
+	 * @param bytes The chunk size in bytes
+	 */
+	public void setChunkSize(long bytes) {
+		this.chunkSize = Math.min(bytes, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Sets how whitespace in text is treated. The default is {@link Whitespace#TRIM}
+	 */
+	public void setWhitespace(Whitespace mode) {
+		this.whitespace = mode;
+	}
+
+	/**
+	 * Parses each chunk of a feed into a new schema implementation
+	 *
+	 * @param file The feed
+	 * @param handlers Creates a schema implementation for each chunk
+	 * @return The implementations, in the order of their chunks in the feed
+	 * @throws IOException
+	 * @throws SAXException
+	 */
+	public <H extends T> List<H> read(File file, final Supplier<H> handlers) throws IOException, SAXException {
+		final Feed feed = new Feed(file);
+		try {
+			if (feed.chunks() == 0) {
+				H handler = handlers.get();
+				Dispatcher dispatcher = new Dispatcher(schema, handler);
+				dispatcher.whitespace(whitespace);
+				parse(feed.wrapper(), new SAXHandler(schema, dispatcher));
+				return Collections.singletonList(handler);
+			}
+			List<ForkJoinTask<H>> tasks = new ArrayList<ForkJoinTask<H>>();
+			for (int i = 0; i < feed.chunks(); i++) {
+				final int chunk = i;
+				tasks.add(pool.submit(new Callable<H>() {
+					public H call() throws Exception {
+						H handler = handlers.get();
+						Dispatcher dispatcher = new Dispatcher(schema, handler);
+						dispatcher.whitespace(whitespace);
+						parse(feed.chunk(chunk), new SAXHandler(schema, dispatcher));
+						return handler;
+					}
+				}));
+			}
+			List<H> results = new ArrayList<H>(tasks.size());
+			try {
+				for (ForkJoinTask<H> task : tasks) {
+					results.add(join(task));
+				}
+			} catch (IOException | SAXException | RuntimeException | Error e) {
+				cancel(tasks);
+				throw e;
+			}
+			return results;
+		} finally {
+			feed.close();
+		}
+	}
+
+	/**
+	 * Parses a feed into a single schema implementation, building the records in parallel.
+	 * The records are added to the document element in document order
+	 * by the calling thread
+	 *
+	 * @param file The feed
+	 * @param handler The schema implementation. Its factory methods and the methods of
+	 * the nodes it creates are called from several threads at once
+	 * @throws IOException
+	 * @throws SAXException
+	 */
+	public void read(File file, final T handler) throws IOException, SAXException {
+		final Feed feed = new Feed(file);
+		try {
+			final List<ForkJoinTask<List<Dispatcher.Node>>> tasks = new ArrayList<ForkJoinTask<List<Dispatcher.Node>>>();
+			for (int i = 0; i < feed.chunks(); i++) {
+				final int chunk = i;
+				tasks.add(pool.submit(new Callable<List<Dispatcher.Node>>() {
+					public List<Dispatcher.Node> call() throws Exception {
+						List<Dispatcher.Node> records = new ArrayList<Dispatcher.Node>();
+						Dispatcher dispatcher = new Dispatcher(schema, handler, records);
+						dispatcher.whitespace(whitespace);
+						parse(feed.chunk(chunk), new RecordHandler(schema, dispatcher, name));
+						return records;
+					}
+				}));
+			}
+
+			Dispatcher dispatcher = new Dispatcher(schema, handler);
+			dispatcher.whitespace(whitespace);
+			try {
+				parse(feed.wrapper(), new MergeHandler(schema, dispatcher, tasks));
+			} catch (IOException | SAXException | RuntimeException | Error e) {
+				cancel(tasks);
+				throw e;
+			}
+		} finally {
+			feed.close();
+		}
+	}
+
+	private static <V> V join(ForkJoinTask<V> task) throws IOException, SAXException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SAXException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof SAXException) throw (SAXException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new SAXException((Exception) cause);
+		}
+	}
+
+	/**
+	 * Cancels the tasks that have not started. Those already running are left to finish
+	 */
+	private static void cancel(List<? extends ForkJoinTask<?>> tasks) {
+		for (ForkJoinTask<?> task : tasks) {
+			task.cancel(false);
+		}
+	}
+
+	private static void parse(InputStream in, SAXHandler handler) throws IOException, SAXException {
+		try {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			XMLReader reader = factory.newSAXParser().getXMLReader();
+			reader.setContentHandler(handler);
+			reader.parse(new InputSource(in));
+		} catch (ParserConfigurationException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	/**
+	 * Passes on the records of a chunk, skipping the document element that wraps them
+	 * and any other elements and text it contains
+	 */
+	static class RecordHandler extends SAXHandler {
+		private final String record;
+		private int depth;
+		private boolean skip;
+
+		RecordHandler(Schema<?> schema, Dispatcher dispatcher, String record) {
+			super(schema, dispatcher);
+			this.record = record;
+		}
+
+		@Override public void startElement(String uri, String local, String name, Attributes attrs)
+				throws SAXException {
+			if (++depth == 2) skip = !record.equals(name);
+			if (depth > 1 && !skip) super.startElement(uri, local, name, attrs);
+		}
+
+		@Override public void characters(char ch[], int start, int length) {
+			if (depth > 1 && !skip) super.characters(ch, start, length);
+		}
+
+		@Override public void endElement(String uri, String local, String name) throws SAXException {
+			if (depth-- > 1 && !skip) super.endElement(uri, local, name);
+		}
+	}
+
+	/**
+	 * Parses the document element, adding the records built by the chunk tasks
+	 * before it is closed
+	 */
+	static class MergeHandler extends SAXHandler {
+		private final List<ForkJoinTask<List<Dispatcher.Node>>> tasks;
+		private int depth;
+
+		MergeHandler(Schema<?> schema, Dispatcher dispatcher, List<ForkJoinTask<List<Dispatcher.Node>>> tasks) {
+			super(schema, dispatcher);
+			this.tasks = tasks;
+		}
+
+		@Override public void startElement(String uri, String local, String name, Attributes attrs)
+				throws SAXException {
+			depth++;
+			super.startElement(uri, local, name, attrs);
+		}
+
+		@Override public void endElement(String uri, String local, String name) throws SAXException {
+			if (--depth == 0) {
+				try {
+					for (ForkJoinTask<List<Dispatcher.Node>> task : tasks) {
+						for (Dispatcher.Node record : join(task)) {
+							dispatcher.child(record.type, record.node);
+						}
+					}
+				} catch (SAXException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new SAXException(e);
+				}
+			}
+			super.endElement(uri, local, name);
+		}
+	}
+
+	/**
+	 * A feed file divided into the bytes before the first record, the chunks of records,
+	 * and the bytes after the last record.
+	 * Each part is memory-mapped when it is read, in pieces of at most 2GB
+	 */
+	final class Feed {
+		private final RandomAccessFile file;
+		private final FileChannel channel;
+		/** The end of the header, the start of the trailer, and the size of the file */
+		private final long first, end, size;
+		private final long[] bounds;
+
+		Feed(File f) throws IOException {
+			file = new RandomAccessFile(f, "r");
+			channel = file.getChannel();
+			try {
+				size = channel.size();
+				long last = trailer(size);
+				long start = next(0, last);
+				if (start < 0) {
+					first = end = size;
+					bounds = new long[0];
+					return;
+				}
+				first = start;
+				end = last;
+
+				List<Long> list = new ArrayList<Long>();
+				list.add(first);
+				for (long p = first; ; ) {
+					p = next(Math.max(p + chunkSize, list.get(list.size() - 1) + 1), end);
+					if (p < 0) break;
+					list.add(p);
+				}
+				list.add(end);
+				bounds = new long[list.size()];
+				for (int i = 0; i < bounds.length; i++) bounds[i] = list.get(i);
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		int chunks() {
+			return Math.max(bounds.length - 1, 0);
+		}
+
+		InputStream chunk(int i) throws IOException {
+			return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+					region(0, first), region(bounds[i], bounds[i + 1]), region(end, size))));
+		}
+
+		/**
+		 * @return The feed without its records
+		 */
+		InputStream wrapper() throws IOException {
+			return new SequenceInputStream(region(0, first), region(end, size));
+		}
+
+		/**
+		 * @return The bytes of the file from one position up to another
+		 */
+		private InputStream region(long from, long to) throws IOException {
+			List<InputStream> pieces = new ArrayList<InputStream>(1);
+			for (long pos = from; pos < to; pos += Integer.MAX_VALUE) {
+				pieces.add(new BufferInput(channel.map(FileChannel.MapMode.READ_ONLY,
+						pos, Math.min(to - pos, Integer.MAX_VALUE))));
+			}
+			return new SequenceInputStream(Collections.enumeration(pieces));
+		}
+
+		/**
+		 * @return The position of the last end tag in the file,
+		 * which is the end tag of the document element
+		 */
+		private long trailer(long size) throws IOException {
+			long start = Math.max(0, size - BLOCK);
+			byte[] block = read(start, (int) (size - start));
+			for (int i = block.length - 2; i >= 0; i--) {
+				if (block[i] == '<' && block[i + 1] == '/') return start + i;
+			}
+			throw new IOException("Cannot find the end tag of the document element");
+		}
+
+		/**
+		 * @return The position of the next record start tag at or after a position,
+		 * or -1 if there is none before the limit
+		 */
+		private long next(long from, long limit) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(BLOCK);
+			for (long pos = from; pos < limit; pos += BLOCK - record.length) {
+				buffer.clear();
+				if (limit - pos < BLOCK) buffer.limit((int) (limit - pos));
+				while (buffer.hasRemaining() && channel.read(buffer, pos + buffer.position()) >= 0);
+				byte[] b = buffer.array();
+				int n = buffer.position();
+				for (int i = 0; i + record.length < n; i++) {
+					if (matches(b, i) && isNameEnd(b[i + record.length])) return pos + i;
+				}
+				if (n < BLOCK) break;
+			}
+			return -1;
+		}
+
+		private boolean matches(byte[] b, int i) {
+			for (int j = 0; j < record.length; j++) {
+				if (b[i + j] != record[j]) return false;
+			}
+			return true;
+		}
+
+		private boolean isNameEnd(byte b) {
+			return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\r' || b == '\n';
+		}
+
+		private byte[] read(long pos, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			while (buffer.hasRemaining() && channel.read(buffer, pos + buffer.position()) >= 0);
+			return buffer.array();
+		}
+
+		void close() throws IOException {
+			file.close();
+		}
+	}
+
+	/**
+	 * An InputStream over a memory-mapped chunk
+	 */
+	static final class BufferInput extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInput(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override public int read() {
+			return buffer.hasRemaining()? buffer.get() & 0xFF : -1;
+		}
+
+		@Override public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining()) return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override public int available() {
+			return buffer.remaining();
+		}
+	}
+}
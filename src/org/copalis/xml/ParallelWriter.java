@@ -0,0 +1,300 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Builds independent subtrees of a document on several threads
+ * <p>
+ * Each builder function is called on a fork-join pool with its own instance of the schema,
+ * bound to a fragment of its own, and returns the node at the top of the subtree it built.
+ * Once all the fragments are complete, {@link #build(Object, List)} returns nodes
+ * that belong to the document being written, in the order of the builders, to be added
+ * to their parents with the schema's child-node methods as any other node would be:
+ * </p>
+ * <pre>
+ * for (Order order : writer.build(schema, builders)) {
+ *     orders._(order);
+ * }
+ * </pre>
+ * <p>
+ * For a Document bound with {@link DocBinder}, each fragment is a Document of its own
+ * and its subtree is adopted into the target document, which moves it without copying it.
+ * For a document bound to an OutputStream with {@link StreamBinder}, each fragment is
+ * encoded to UTF-8 bytes on its own thread, and the bytes are written to the stream
+ * when the node is added.
+ * The nodes of a fragment cannot be changed once it has been built.
+ * If a builder fails, the fragments that have not yet been started are cancelled
+ * and its exception is thrown.
+ * </p>
+ * <p>
+ * A Document bound with a {@link SchemaListener} has each fragment bound with the same listener,
+ * which is called on the pool threads as the fragments are built.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public class ParallelWriter<T> {
+
+	private static final ClassValue<MethodHandle> constructors = new ClassValue<MethodHandle>() {
+		@Override protected MethodHandle computeValue(Class<?> type) {
+			try {
+				Constructor<?> c = type.getDeclaredConstructor(Generated.Writer.class, Object.class);
+				c.setAccessible(true);
+				return MethodHandles.lookup().unreflectConstructor(c).asType(
+						MethodType.methodType(Object.class, Generated.Writer.class, Object.class));
+			} catch (Exception e) {
+				throw new IllegalStateException("Cannot construct nodes of " + type.getName(), e);
+			}
+		}
+	};
+
+	private final Schema<T> schema;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	public ParallelWriter(Class<T> definition) {
+		this(Schema.of(definition));
+	}
+
+	public ParallelWriter(Schema<T> schema) {
+		this.schema = schema;
+	}
+
+	/**
+	 * Sets the pool fragments are built on. The default is the common pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Builds fragments in parallel
+	 *
+	 * @param document A schema instance bound to a Document by {@link DocBinder}
+	 * or to an OutputStream by {@link StreamBinder}
+	 * @param builders Functions that each build a subtree with the schema instance they are passed,
+	 * and return its top node
+	 * @return The top nodes of the subtrees, bound to the document, in the order of the builders
+	 */
+	public <N> List<N> build(T document, List<? extends Function<? super T, ? extends N>> builders) {
+		Target target = target(document);
+		List<ForkJoinTask<Object>> tasks = new ArrayList<ForkJoinTask<Object>>(builders.size());
+		for (final Function<? super T, ? extends N> builder : builders) {
+			final Target t = target;
+			tasks.add(pool.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					return t.fragment(builder);
+				}
+			}));
+		}
+		List<N> nodes = new ArrayList<N>(tasks.size());
+		try {
+			for (ForkJoinTask<Object> task : tasks) {
+				@SuppressWarnings("unchecked")
+				N node = (N) target.attach(join(task));
+				nodes.add(node);
+			}
+		} catch (RuntimeException | Error e) {
+			// fragments that have not started are not built; those already running are discarded
+			for (ForkJoinTask<Object> task : tasks) {
+				task.cancel(false);
+			}
+			throw e;
+		}
+		return nodes;
+	}
+
+	private static Object join(ForkJoinTask<Object> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while building fragments", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new UndeclaredThrowableException(cause);
+		}
+	}
+
+	private Target target(T document) {
+		Generated.Writer writer = null;
+		if (document instanceof Generated.Node) {
+			writer = ((Generated.Node) document).writer;
+		} else if (Proxy.isProxyClass(document.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(document);
+			if (handler instanceof DocBinder) writer = ((DocBinder) handler).writer;
+		}
+		Generated.Writer target = writer instanceof DocBinder.ListeningWriter? ((DocBinder.ListeningWriter) writer).writer : writer;
+		if (target instanceof DocBinder.DocWriter) {
+			return new DocTarget((DocBinder.DocWriter) target, writer);
+		}
+		StreamBinder.Context context = StreamBinder.context(document);
+		if (context != null) {
+			if (!(context.sink instanceof StreamBinder.StreamSink)) {
+				throw new UnsupportedOperationException("Fragments can only be written to an OutputStream");
+			}
+			return new StreamTarget(context, document instanceof Generated.Node?
+					((Generated.Node) document).writer : null);
+		}
+		throw new IllegalArgumentException("Not a schema instance bound by DocBinder or StreamBinder");
+	}
+
+	/**
+	 * Creates a node of the same type as a fragment's top node,
+	 * bound to the target document
+	 *
+	 * @param node The fragment's node
+	 * @param writer The target's generated writer, if the fragment was built by a generated class
+	 * @param binder The handler of the target's proxies
+	 * @param element The node's element in the target document
+	 */
+	private Object node(Object node, Generated.Writer writer, InvocationHandler binder, Object element) {
+		if (node instanceof Generated.Node) {
+			try {
+				return (Object) constructors.get(node.getClass()).invokeExact(writer, element);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+		Schema.NodeType type = schema.node(node.getClass().getInterfaces()[0]);
+		if (type == null) {
+			throw new IllegalArgumentException("Fragment node is not a node of " + schema);
+		}
+		return type.proxy(binder);
+	}
+
+	/**
+	 * A document that fragments are built for
+	 */
+	private abstract class Target {
+
+		/**
+		 * Builds a fragment. Called on a pool thread
+		 *
+		 * @return The fragment
+		 */
+		abstract Object fragment(Function<? super T, ?> builder) throws Exception;
+
+		/**
+		 * Adds a fragment to the document, detached
+		 *
+		 * @return A node bound to the document
+		 */
+		abstract Object attach(Object fragment);
+	}
+
+	private final class DocTarget extends Target {
+		private final Generated.Writer writer;
+		private final Document doc;
+
+		/**
+		 * @param target The writer of the document
+		 * @param writer The writer the document's nodes are bound to, which may report to a listener
+		 */
+		DocTarget(DocBinder.DocWriter target, Generated.Writer writer) {
+			this.writer = writer;
+			this.doc = target.doc;
+		}
+
+		Object fragment(Function<? super T, ?> builder) {
+			Document fragment = doc.getImplementation().createDocument(null, null, null);
+			if (writer instanceof DocBinder.ListeningWriter) {
+				return builder.apply(DocBinder.bind(schema, fragment, ((DocBinder.ListeningWriter) writer).listener));
+			}
+			return builder.apply(DocBinder.bind(schema, fragment));
+		}
+
+		Object attach(Object fragment) {
+			Node node;
+			if (fragment instanceof Generated.Node) {
+				node = (Node) ((Generated.Node) fragment).element;
+			} else {
+				node = (Node) ((DocBinder) Proxy.getInvocationHandler(fragment)).node;
+			}
+			Element element = (Element) doc.adoptNode(node);
+			if (writer instanceof DocBinder.ListeningWriter) {
+				// the top element is reported when it is added to its parent in the document
+				DocBinder.ListeningWriter from = (DocBinder.ListeningWriter)
+						((DocBinder) Proxy.getInvocationHandler(fragment)).writer;
+				((DocBinder.ListeningWriter) writer).adopt(element, from);
+			}
+			return node(fragment, writer, new DocBinder(schema, writer, element), element);
+		}
+	}
+
+	private final class StreamTarget extends Target {
+		private final StreamBinder.Context context;
+		private final Generated.Writer writer;
+
+		StreamTarget(StreamBinder.Context context, Generated.Writer writer) {
+			this.context = context;
+			this.writer = writer;
+		}
+
+		Object fragment(Function<? super T, ?> builder) throws Exception {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			Object node = builder.apply(StreamBinder.bindFragment(schema, out));
+			StreamBinder.Context fragment = StreamBinder.context(node);
+			StreamBinder.Element element = fragment.element(node);
+			fragment.document(element);
+			return new Encoded(node, element.name, out.toByteArray());
+		}
+
+		Object attach(Object fragment) {
+			Encoded encoded = (Encoded) fragment;
+			StreamBinder.Element element = new StreamBinder.Element(encoded.name, encoded.bytes);
+			return node(encoded.node, writer, new StreamBinder(context, element), element);
+		}
+	}
+
+	/**
+	 * A fragment that has been encoded, and its top node
+	 */
+	private static final class Encoded {
+		final Object node;
+		final String name;
+		final byte[] bytes;
+
+		Encoded(Object node, String name, byte[] bytes) {
+			this.node = node;
+			this.name = name;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+/**
+ * A source of items that are delivered as a subscriber requests them.
+ * <p>
+ * This interface and its nested interfaces have the same methods and rules as
+ * <code>java.util.concurrent.Flow.Publisher</code>, <code>Subscriber</code> and
+ * <code>Subscription</code>, which are not available on Java 8, so adapting them to Flow
+ * or to Reactive Streams takes one delegating method each.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public interface Publisher<T> {
+
+	/**
+	 * Adds a subscriber, which is passed a {@link Subscription} through
+	 * {@link Subscriber#onSubscribe(Subscription)}
+	 */
+	void subscribe(Subscriber<? super T> subscriber);
+
+	/**
+	 * A receiver of items
+	 */
+	interface Subscriber<T> {
+		void onSubscribe(Subscription subscription);
+		void onNext(T item);
+		void onError(Throwable throwable);
+		void onComplete();
+	}
+
+	/**
+	 * The link between a publisher and a subscriber
+	 */
+	interface Subscription {
+
+		/**
+		 * Adds to the number of items the subscriber is ready to receive
+		 *
+		 * @param n The number of items, which must be positive
+		 */
+		void request(long n);
+
+		/**
+		 * Stops the delivery of items
+		 */
+		void cancel();
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Hands completed records from the parsing thread to an executor in batches,
+ * so that slow processing of records does not stall the parser.
+ * <p>
+ * A pipeline is a consumer of records that is installed with
+ * {@link SAXHandler#setRecords(Class, Consumer)} or {@link StaxReader#setRecords(Class, Consumer)}.
+ * The parsing thread builds the records through the schema implementation and collects them
+ * into batches; each full batch is queued for the processor on the executor, which may be a
+ * thread pool or, on Java 21, a virtual-thread-per-task executor.
+ * At most {@link #setQueueDepth(int) queue depth} batches are queued or being processed at
+ * a time; when the queue is full the parser waits, so memory use stays bounded.
+ * </p>
+ * <p>
+ * Ordered pipelines, the default, process one batch at a time in document order.
+ * Unordered pipelines process batches concurrently, and the processor must be thread-safe.
+ * If the processor throws an exception the remaining records are discarded and the exception
+ * is rethrown to the parser by the next record, and by {@link #close()}.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public class RecordPipeline<R> implements Consumer<R>, AutoCloseable {
+
+	private final Executor executor;
+	private final Consumer<? super R> processor;
+
+	private int batchSize = 256;
+	private int queueDepth = 16;
+	private boolean ordered = true;
+
+	private Semaphore slots;
+	private Object[] batch;
+	private int size;
+
+	private final Queue<Batch> queue = new ConcurrentLinkedQueue<Batch>();
+	private final AtomicInteger wip = new AtomicInteger();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	private final LongAdder records = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder queueWait = new LongAdder();
+	private final AtomicLong maxQueueWait = new AtomicLong();
+	private long parserWait;
+
+	/**
+	 * @param executor Runs the processing of batches
+	 * @param processor Processes each record
+	 */
+	public RecordPipeline(Executor executor, Consumer<? super R> processor) {
+		this.executor = executor;
+		this.processor = processor;
+	}
+
+	/**
+	 * Sets the number of records in a batch. The default is 256
+	 */
+	public void setBatchSize(int records) {
+		if (records < 1) throw new IllegalArgumentException("Batch size must be positive");
+		checkUnused();
+		this.batchSize = records;
+	}
+
+	/**
+	 * Sets the number of batches that can be queued or processed at once. The default is 16
+	 */
+	public void setQueueDepth(int batches) {
+		if (batches < 1) throw new IllegalArgumentException("Queue depth must be positive");
+		checkUnused();
+		this.queueDepth = batches;
+	}
+
+	/**
+	 * Sets whether batches are processed one at a time in document order, which is the default,
+	 * or concurrently
+	 */
+	public void setOrdered(boolean ordered) {
+		checkUnused();
+		this.ordered = ordered;
+	}
+
+	private void checkUnused() {
+		if (slots != null) throw new IllegalStateException("The pipeline has already been used");
+	}
+
+	/**
+	 * Adds a record to the current batch, queueing the batch when it is full.
+	 * Called by the parser
+	 */
+	public void accept(R record) {
+		rethrow();
+		if (batch == null) {
+			if (slots == null) slots = new Semaphore(queueDepth);
+			batch = new Object[batchSize];
+		}
+		batch[size++] = record;
+		if (size == batchSize) submit();
+	}
+
+	/**
+	 * Queues the last, partial batch and waits until every batch has been processed.
+	 * If the thread is interrupted while waiting, its interrupt status is set and
+	 * an IllegalStateException is thrown
+	 */
+	public void close() {
+		if (size > 0) submit();
+		if (slots != null) {
+			try {
+				slots.acquire(queueDepth);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for batches to be processed", e);
+			}
+			slots.release(queueDepth);
+		}
+		rethrow();
+	}
+
+	private void submit() {
+		long start = System.nanoTime();
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the record queue", e);
+		}
+		parserWait += System.nanoTime() - start;
+
+		final Batch b = new Batch(batch, size);
+		batch = null;
+		size = 0;
+		if (ordered) {
+			queue.offer(b);
+			if (wip.getAndIncrement() == 0) {
+				try {
+					executor.execute(new Runnable() {
+						public void run() {
+							do {
+								process(queue.poll());
+							} while (wip.decrementAndGet() != 0);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					// no task is draining the queue, so the batch is the only one in it
+					queue.remove(b);
+					wip.decrementAndGet();
+					slots.release();
+					throw e;
+				}
+			}
+		} else {
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						process(b);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				slots.release();
+				throw e;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void process(Batch b) {
+		long wait = System.nanoTime() - b.queued;
+		queueWait.add(wait);
+		for (long max = maxQueueWait.get(); wait > max && !maxQueueWait.compareAndSet(max, wait); max = maxQueueWait.get());
+		try {
+			if (failure.get() == null) {
+				for (int i = 0; i < b.size; i++) {
+					processor.accept((R) b.records[i]);
+				}
+				records.add(b.size);
+				batches.increment();
+			}
+		} catch (Throwable e) {
+			failure.compareAndSet(null, e);
+		} finally {
+			slots.release();
+		}
+	}
+
+	private void rethrow() {
+		Throwable e = failure.get();
+		if (e instanceof RuntimeException) throw (RuntimeException) e;
+		if (e instanceof Error) throw (Error) e;
+		if (e != null) throw new IllegalStateException(e);
+	}
+
+	/**
+	 * @return The number of records that have been processed
+	 */
+	public long records() {
+		return records.sum();
+	}
+
+	/**
+	 * @return The number of batches that have been processed
+	 */
+	public long batches() {
+		return batches.sum();
+	}
+
+	/**
+	 * @return The total time, in nanoseconds, that batches have waited between being
+	 * queued and being processed
+	 */
+	public long queueWaitNanos() {
+		return queueWait.sum();
+	}
+
+	/**
+	 * @return The longest time, in nanoseconds, that a batch has waited to be processed
+	 */
+	public long maxQueueWaitNanos() {
+		return maxQueueWait.get();
+	}
+
+	/**
+	 * @return The total time, in nanoseconds, that the parser has waited for room in the queue.
+	 * Only meaningful on the parsing thread
+	 */
+	public long parserWaitNanos() {
+		return parserWait;
+	}
+
+	private static final class Batch {
+		final Object[] records;
+		final int size;
+		final long queued = System.nanoTime();
+
+		Batch(Object[] records, int size) {
+			this.records = records;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Publishes the records of a document to a subscriber, parsing only as many
+ * records as the subscriber has requested.
+ * <p>
+ * The records are the nodes of a record node type, built through a schema
+ * implementation by a {@link StaxReader} in record mode. Nothing is read from
+ * the XMLStreamReader until records are requested, and parsing stops as soon as
+ * the requested records have been delivered, so a slow subscriber slows the parser
+ * down instead of records being buffered. Parsing runs on the thread that calls
+ * {@link Publisher.Subscription#request(long)}; calls from several threads are serialized.
+ * Cancelling the subscription stops parsing before the next element.
+ * </p>
+ * <p>
+ * A publisher can be subscribed to once. The XMLStreamReader is closed when the
+ * document has been read, when an error occurs or when the subscription is cancelled.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public class RecordPublisher<R> implements Publisher<R> {
+
+	private final StaxReader stax;
+	private final XMLStreamReader reader;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+	private R pending;
+
+	/**
+	 * @param definition The schema interface
+	 * @param handler The schema implementation that builds the records
+	 * @param type The node interface of the records
+	 * @param reader The document
+	 */
+	public <T> RecordPublisher(Class<T> definition, T handler, Class<R> type, XMLStreamReader reader) {
+		this(Schema.of(definition), handler, type, reader);
+	}
+
+	public <T> RecordPublisher(Schema<T> schema, T handler, Class<R> type, XMLStreamReader reader) {
+		this.reader = reader;
+		this.stax = new StaxReader(schema, handler, reader);
+		stax.setRecords(type, new Consumer<R>() {
+			public void accept(R record) {
+				pending = record;
+			}
+		});
+	}
+
+	/**
+	 * Sets how whitespace in text is treated. The default is {@link Whitespace#TRIM}
+	 *
+	 * @param mode The whitespace mode
+	 */
+	public void setWhitespace(Whitespace mode) {
+		stax.setWhitespace(mode);
+	}
+
+	public void subscribe(Subscriber<? super R> subscriber) {
+		if (subscriber == null) throw new NullPointerException();
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Subscription() {
+				public void request(long n) {}
+				public void cancel() {}
+			});
+			subscriber.onError(new IllegalStateException("A RecordPublisher can only be subscribed to once"));
+			return;
+		}
+		RecordSubscription subscription = new RecordSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		subscription.drain();
+	}
+
+	/**
+	 * Parses until the next record has been completed
+	 *
+	 * @return The record, or null at the end of the document
+	 */
+	private R next(RecordSubscription subscription) throws XMLStreamException {
+		while (pending == null && !subscription.cancelled && stax.next());
+		R record = pending;
+		pending = null;
+		return record;
+	}
+
+	private final class RecordSubscription implements Subscription {
+		private final Subscriber<? super R> subscriber;
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean cancelled;
+		private volatile Throwable invalid;
+		private boolean done;
+
+		RecordSubscription(Subscriber<? super R> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public void request(long n) {
+			if (n <= 0) {
+				invalid = new IllegalArgumentException("Requested " + n + " records; the number must be positive");
+			} else {
+				long r, u;
+				do {
+					r = requested.get();
+					u = r + n < 0? Long.MAX_VALUE : r + n;
+				} while (!requested.compareAndSet(r, u));
+			}
+			drain();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			drain();
+		}
+
+		/**
+		 * Delivers requested records. Only one thread at a time parses;
+		 * requests made while it does are picked up before it returns
+		 */
+		void drain() {
+			if (wip.getAndIncrement() != 0) return;
+			int missed = 1;
+			do {
+				if (!done) deliver();
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void deliver() {
+			try {
+				long delivered = 0;
+				for (long r = requested.get(); ; ) {
+					if (cancelled) {
+						finish();
+						return;
+					}
+					if (invalid != null) {
+						finish();
+						subscriber.onError(invalid);
+						return;
+					}
+					if (delivered == r) {
+						r = requested.addAndGet(-delivered);
+						delivered = 0;
+						if (r == 0) return;
+					}
+					R record = next(this);
+					if (cancelled) continue;
+					if (record == null) {
+						finish();
+						subscriber.onComplete();
+						return;
+					}
+					subscriber.onNext(record);
+					delivered++;
+				}
+			} catch (XMLStreamException e) {
+				finish();
+				subscriber.onError(e);
+			} catch (RuntimeException e) {
+				finish();
+				subscriber.onError(e);
+			}
+		}
+
+		private void finish() {
+			done = true;
+			pending = null;
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				// the document is no longer needed
+			}
+		}
+	}
+}
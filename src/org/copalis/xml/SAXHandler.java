@@ -15,8 +15,7 @@
  */
 package org.copalis.xml;
 
-import java.lang.reflect.Method;
-import java.util.LinkedList;
+import java.util.function.Consumer;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -31,119 +30,86 @@ import org.xml.sax.helpers.DefaultHandler;
 public class SAXHandler extends DefaultHandler {
 	
 	private final Schema<?> schema;
-	private final Object handler;
-	
-	private final LinkedList<Element> elements = new LinkedList<Element>();
+	final Dispatcher dispatcher;
 	
 	public <T> SAXHandler(Class<T> definition, T handler) {
-		this(new Schema<T>(definition), handler);
+		this(Schema.of(definition), handler);
 	}
 	
 	public <T> SAXHandler(Schema<T> schema, T handler) {
 		this.schema = schema;
-		this.handler = handler;
-		
-		elements.push(new NodeElement(schema.definition(), handler));
+		this.dispatcher = new Dispatcher(schema, handler);
 	}
 	
+	SAXHandler(Schema<?> schema, Dispatcher dispatcher) {
+		this.schema = schema;
+		this.dispatcher = dispatcher;
+	}
+	
+	/**
+	 * Sets how whitespace in text is treated. The default is {@link Whitespace#TRIM}
+	 * 
+	 * @param mode The whitespace mode
+	 */
+	public void setWhitespace(Whitespace mode) {
+		dispatcher.whitespace(mode);
+	}
+	
+	/**
+	 * Installs a listener for instrumentation events. Install it before the document is read
+	 * 
+	 * @param listener The listener, or null for none
+	 */
+	public void setListener(SchemaListener listener) {
+		dispatcher.listener(listener);
+	}
+	
+	/**
+	 * Streams records: each completed node of the record type is passed to the consumer
+	 * as soon as its end tag has been read, instead of being added to its parent node,
+	 * so the schema implementation does not have to hold the whole document
+	 * 
+	 * @param type The node interface of the records
+	 * @param consumer The consumer of the records, or null to add them to their parents
+	 */
+	public <R> void setRecords(Class<R> type, Consumer<? super R> consumer) {
+		dispatcher.records(type, consumer);
+	}
+	
+    @Override public void startDocument() {
+    	dispatcher.startDocument();
+    }
+    
+    @Override public void endDocument() {
+    	dispatcher.endDocument(0);
+    }
+    
     @Override public void startElement(String uri, String local, String name, Attributes attrs)
     		throws SAXException {
     	if (!schema.isNamespace(uri)) 
     		return;
     	try {
-    		elements.push(elements.peek().start(name, attrs));
+    		int n = attrs.getLength();
+    		dispatcher.start(local.length() > 0? local : name, n);
+    		for (int i = 0; i < n; i++) {
+    			dispatcher.attribute(attrs.getLocalName(i), attrs.getValue(i));
+    		}
     	} catch (Exception e) {
     		throw new SAXException(e);
     	}
     }
     
-    @Override public void characters(char ch[], int start, int length) throws SAXException {
-    	try {
-    		String text = String.copyValueOf(ch, start, length).trim();
-    		if (text.length() > 0) elements.push(elements.pop().text(text));
-    	} catch (Exception e) {
-    		throw new SAXException(e);
-    	}
+    @Override public void characters(char ch[], int start, int length) {
+    	dispatcher.characters(ch, start, length);
     }
 
     @Override public void endElement(String uri, String local, String name) throws SAXException {
     	if (!schema.isNamespace(uri)) 
     		return;
     	try {
-    		Element element = elements.pop().end((NodeElement) elements.pop());
-    		if (element != null) elements.push(element);
+    		dispatcher.end();
     	} catch (Exception e) {
     		throw new SAXException(e);
     	}
     }
-    
-    interface Element {
-    	Element start(String name, Attributes attrs) throws Exception;
-    	Element text(String text) throws Exception;
-    	Element end(NodeElement parent) throws Exception;
-    }
-    
-    private class NodeElement implements Element {
-    	final Class<?> type;
-    	final Object node;
-    	
-    	NodeElement(Class<?> type, Object node) {
-    		this.type = type;
-    		this.node = node;
-    	}
-    	
-    	public Element start(String name, Attributes attrs) throws Exception {
-    		if (attrs.getLength() == 0) {
-    			try {
-    				return new TextElement(name);
-    			} catch (NoSuchMethodException e) {}
-    		}
-			Method method = schema.getFactoryMethod(name);
-			Class<?> type = method.getReturnType();
-			Object node = method.invoke(handler);
-			
-	    	for (int i = 0, n = attrs.getLength(); i < n; i++) {
-	    		Method m = schema.getAttributeMethod(type, attrs.getLocalName(i));
-	    		type = m.getReturnType();
-				node = Schema.invoke(m, node, attrs.getValue(i));
-	    	}
-			
-			return new NodeElement(type, node);
-    	}
-    	
-    	public Element text(String text) throws Exception {
-    		Method method = schema.getTextMethod(type);
-    		return new NodeElement(method.getReturnType(), method.invoke(node, text));
-    	}
-    	
-    	public Element end(NodeElement parent) throws Exception {
-    		Method m = schema.getChildMethod(parent.type, type);
-    		Object obj = m.invoke(parent.node, node);
-    		return m.getReturnType() != void.class? new NodeElement(m.getReturnType(), obj) : null;
-    	}
-    }
-    
-    class TextElement implements Element {
-    	final Method method;
-    	final StringBuilder text = new StringBuilder();
-    	
-    	TextElement(String name) throws NoSuchMethodException {
-    		this.method = schema.getTextNodeFactoryMethod(name);
-    	}
-    	
-    	public Element start(String name, Attributes attrs) {
-    		throw new UnsupportedOperationException();
-    	}
-
-		public Element text(String text) {
-			this.text.append(text);
-			return this;
-		}
-
-		public Element end(NodeElement parent) throws Exception {
-			Method m = schema.getChildMethod(parent.type, method.getReturnType());
-			Object obj = m.invoke(parent.node, method.invoke(handler, text.toString()));
-    		return m.getReturnType() != void.class? new NodeElement(m.getReturnType(), obj) : null;
-		}
-    }
 }
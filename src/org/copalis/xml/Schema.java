@@ -19,8 +19,19 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Schema represents information about a schema interface
@@ -42,11 +53,33 @@ import java.lang.reflect.Method;
  * <tr><td>Add a child node</td><td><i>node-type</i> <b>_</b>(<i>node-type</i> childNode);</td></tr>
  * <tr><td>Add text</td><td><i>node-type</i> <b>$</b>(String value);</td></tr>
  * </table>
+ * <p>
+ * Attribute and text-node values may be of any type a {@link Converter} exists for.
+ * Text methods may take a CharSequence instead of a String, as may attribute and text-node methods;
+ * a parser then passes a view of its buffer, which is only valid until the method returns.
+ * Parsers pass <code>int</code>, <code>long</code>, <code>double</code> and <code>boolean</code>
+ * values without boxing them, parsing them from their own buffers where they can,
+ * unless a converter has been registered for the type.
+ * </p>
+ * <p>
+ * The schema interface and every node interface reachable from it are analysed
+ * once, when the Schema is constructed. The resulting model is immutable,
+ * so a Schema may be shared between threads.
+ * </p>
+ * <p>
+ * Schema methods are invoked through method handles bound when the schema is compiled.
+ * If the schema interface is annotated with {@link Generate} and the classes generated
+ * for it by {@link SchemaProcessor} are present, they are used instead.
+ * Setting the system property <code>org.copalis.xml.reflection</code> to <code>true</code>
+ * selects plain reflective invocation and dynamic proxies in either case.
+ * </p>
  *
  * @author gilesjb
  */
 public class Schema<T> {
 	
+	static final boolean REFLECTION = Boolean.getBoolean("org.copalis.xml.reflection");
+	
 	@Retention(RetentionPolicy.RUNTIME)
 	@Target(ElementType.TYPE)
 	public @interface Text {
@@ -59,12 +92,29 @@ public class Schema<T> {
 		String value();
 	}
 	
+	/**
+	 * Marks a schema interface for which {@link SchemaProcessor} generates
+	 * a writer and a dispatcher at compile time
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface Generate {
+	}
+	
 	private final Class<T> definition;
 	private final String namespace;
 	
 	private final String childName;
 	private final String textName;
 	
+	private final Map<Method, Binding> bindings = new HashMap<Method, Binding>();
+	private final Map<Class<?>, NodeType> nodes = new HashMap<Class<?>, NodeType>();
+	private final Map<String, Binding> factories = new HashMap<String, Binding>();
+	private final Map<String, Binding> textNodeFactories = new HashMap<String, Binding>();
+	private final Symbols symbols = new Symbols();
+	private Binding[] factoryIds, textNodeFactoryIds;
+	private final Generated generated;
+	
 	public enum MethodType {
 		CHILD,
 		FACTORY,
@@ -80,7 +130,7 @@ public class Schema<T> {
 			if (schema.childName.equals(name)) {
 				if (params.length == 1) return CHILD;
 			} else if (schema.textName.equals(name)) {
-				if (!root && params.length == 1 && params[0] == String.class) return TEXT;
+				if (!root && params.length == 1 && (params[0] == String.class || params[0] == CharSequence.class)) return TEXT;
 			} else if (root) {
 				if (params.length == 0) return FACTORY;
 				if (params.length == 1) return TEXT_NODE_FACTORY;
@@ -92,8 +142,355 @@ public class Schema<T> {
 		}
 	}
 	
+	/**
+	 * The compiled form of a single schema method
+	 */
+	public static final class Binding {
+		/** How values from a document are passed to the parameter */
+		private static final int OBJECT = 0, CHARS = 1, INT = 2, LONG = 3, DOUBLE = 4, BOOLEAN = 5;
+		
+		private final Method method;
+		private final MethodType type;
+		private final Class<?> parameterType;
+		private final Converter<?> converter;
+		private final MethodHandle handle;
+		private final Generated generated;
+		private final int index;
+		private final int kind;
+		private final MethodHandle primitive;
+		private NodeType node;
+		
+		Binding(Method method, MethodType type, Generated generated, int index) {
+			Class<?>[] params = method.getParameterTypes();
+			this.method = method;
+			this.type = type;
+			this.parameterType = params.length > 0? params[0] : null;
+			this.converter = type == MethodType.ATTRIBUTE || type == MethodType.TEXT_NODE_FACTORY
+					? Converters.of(parameterType) : null;
+			this.generated = index >= 0? generated : null;
+			this.index = index;
+			this.kind = type == MethodType.ATTRIBUTE || type == MethodType.TEXT || type == MethodType.TEXT_NODE_FACTORY
+					? kind(parameterType) : OBJECT;
+			boolean handles = !REFLECTION && this.generated == null;
+			this.handle = handles? handle(method, params.length == 0
+					? java.lang.invoke.MethodType.methodType(Object.class, Object.class)
+					: java.lang.invoke.MethodType.methodType(Object.class, Object.class, Object.class)) : null;
+			this.primitive = handles && kind >= INT? handle(method,
+					java.lang.invoke.MethodType.methodType(Object.class, Object.class, parameterType)) : null;
+		}
+		
+		/**
+		 * Adapts a method to a handle of the given type,
+		 * or returns null if the method cannot be accessed that way
+		 */
+		private static MethodHandle handle(Method method, java.lang.invoke.MethodType type) {
+			try {
+				method.setAccessible(true);
+			} catch (SecurityException e) {}
+			try {
+				return MethodHandles.lookup().unreflect(method).asType(type);
+			} catch (IllegalAccessException e) {
+				return null;
+			}
+		}
+		
+		/**
+		 * @return How values of a parameter type can be passed without a String or boxing:
+		 * primitive types with a registered converter are converted from Strings as other types are
+		 */
+		private static int kind(Class<?> type) {
+			if (type == CharSequence.class) return CHARS;
+			if (Converters.isRegistered(type)) return OBJECT;
+			if (type == int.class) return INT;
+			if (type == long.class) return LONG;
+			if (type == double.class) return DOUBLE;
+			if (type == boolean.class) return BOOLEAN;
+			return OBJECT;
+		}
+		
+		public Method method() {
+			return method;
+		}
+		
+		public MethodType type() {
+			return type;
+		}
+		
+		/**
+		 * @return The element or attribute name
+		 */
+		public String name() {
+			return method.getName();
+		}
+		
+		/**
+		 * @return The type of the single parameter, or null if the method takes none
+		 */
+		public Class<?> parameterType() {
+			return parameterType;
+		}
+		
+		/**
+		 * @return The node type returned by the method
+		 */
+		public Class<?> returnType() {
+			return method.getReturnType();
+		}
+		
+		/**
+		 * @return The compiled node type returned by the method,
+		 * or null if it does not return a node
+		 */
+		public NodeType node() {
+			return node;
+		}
+		
+		/**
+		 * Converts a string to the parameter type of this method,
+		 * using the converter resolved when the schema was compiled
+		 * 
+		 * @param val The string value
+		 * @return The converted value
+		 * @throws IllegalArgumentException if the value cannot be converted
+		 * @see Converters
+		 */
+		public Object convert(String val) throws IllegalArgumentException {
+			return (converter != null? converter : Converters.of(parameterType)).convert(val);
+		}
+		
+		/**
+		 * Invokes a method that takes no parameters.
+		 * Exceptions thrown by the method are propagated unwrapped.
+		 * 
+		 * @param object The target object
+		 * @return The method's return value, or null if it is void
+		 * @throws Exception
+		 */
+		public Object invoke(Object object) throws Exception {
+			try {
+				if (generated != null) return generated.invoke(index, object, null);
+				return handle != null? (Object) handle.invokeExact(object) : method.invoke(object);
+			} catch (InvocationTargetException e) {
+				throw rethrow(e.getCause());
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
+		/**
+		 * Invokes a method that takes one parameter.
+		 * Exceptions thrown by the method are propagated unwrapped.
+		 * 
+		 * @param object The target object
+		 * @param arg The parameter value, already of the parameter type
+		 * @return The method's return value, or null if it is void
+		 * @throws Exception
+		 */
+		public Object invoke(Object object, Object arg) throws Exception {
+			try {
+				if (generated != null) return generated.invoke(index, object, arg);
+				return handle != null? (Object) handle.invokeExact(object, arg) : method.invoke(object, arg);
+			} catch (InvocationTargetException e) {
+				throw rethrow(e.getCause());
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
+		/**
+		 * Invokes an attribute, text or text-node factory method with a value from a document.
+		 * Values for <code>int</code>, <code>long</code>, <code>double</code> and <code>boolean</code>
+		 * parameters are parsed from the characters and passed without boxing,
+		 * and CharSequence parameters are passed the value itself;
+		 * values for other types are converted from a String, as by {@link #convert(String)}.
+		 * 
+		 * @param object The target object
+		 * @param value The value, which may be a view of a parser's buffer that is only valid during the call
+		 * @return The method's return value, or null if it is void
+		 * @throws Exception
+		 */
+		Object invokeText(Object object, CharSequence value) throws Exception {
+			if (kind == CHARS) return invoke(object, value);
+			if (kind == OBJECT) return invoke(object, convert(value.toString()));
+			int i = 0;
+			long l = 0;
+			double d = 0;
+			boolean b = false;
+			try {
+				switch (kind) {
+				case INT: i = Converters.parseInt(value); break;
+				case LONG: l = Converters.parseLong(value); break;
+				case DOUBLE: d = Converters.parseDouble(value); break;
+				default: b = Converters.parseBoolean(value);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not able to construct "
+						+ parameterType.getName() + " from value: " + value, e);
+			}
+			try {
+				switch (kind) {
+				case INT:
+					if (generated != null) return generated.invokeInt(index, object, i);
+					return primitive != null? (Object) primitive.invokeExact(object, i) : method.invoke(object, i);
+				case LONG:
+					if (generated != null) return generated.invokeLong(index, object, l);
+					return primitive != null? (Object) primitive.invokeExact(object, l) : method.invoke(object, l);
+				case DOUBLE:
+					if (generated != null) return generated.invokeDouble(index, object, d);
+					return primitive != null? (Object) primitive.invokeExact(object, d) : method.invoke(object, d);
+				default:
+					if (generated != null) return generated.invokeBoolean(index, object, b);
+					return primitive != null? (Object) primitive.invokeExact(object, b) : method.invoke(object, b);
+				}
+			} catch (InvocationTargetException e) {
+				throw rethrow(e.getCause());
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
+		private static Exception rethrow(Throwable e) {
+			if (e instanceof Error) throw (Error) e;
+			if (e instanceof Exception) return (Exception) e;
+			return new UndeclaredThrowableException(e);
+		}
+		
+		public String toString() {
+			return type + " " + method;
+		}
+	}
+	
+	/**
+	 * The compiled form of a node interface, with its attribute, text and
+	 * child-node methods indexed for constant-time lookup
+	 */
+	public static final class NodeType {
+		private final Class<?> type;
+		private final Map<String, Binding> attributes = new HashMap<String, Binding>();
+		private final Map<Class<?>, Binding> children = new HashMap<Class<?>, Binding>();
+		private final List<Binding> childMethods = new ArrayList<Binding>();
+		private Binding[] attributeIds;
+		private Binding text;
+		private volatile MethodHandle proxy;
+		
+		NodeType(Class<?> type) {
+			this.type = type;
+		}
+		
+		public Class<?> type() {
+			return type;
+		}
+		
+		/**
+		 * @param name An attribute name
+		 * @return The attribute method, or null if the node has no such attribute
+		 */
+		public Binding attribute(String name) {
+			return attributes.get(name);
+		}
+		
+		/**
+		 * @param symbol The symbol id of an attribute name
+		 * @return The attribute method, or null if the node has no such attribute
+		 * @see Schema#symbols()
+		 */
+		public Binding attribute(int symbol) {
+			return symbol >= 0? attributeIds[symbol] : null;
+		}
+		
+		/**
+		 * @return The text-node method, or null if the node does not accept text
+		 */
+		public Binding text() {
+			return text;
+		}
+		
+		/**
+		 * @param child The interface of a child node
+		 * @return The first child-node method that accepts the child,
+		 * or null if there is none
+		 */
+		public Binding child(Class<?> child) {
+			Binding binding = children.get(child);
+			if (binding == null) {
+				for (Binding m : childMethods) {
+					if (m.parameterType.isAssignableFrom(child)) return m;
+				}
+			}
+			return binding;
+		}
+		
+		/**
+		 * Creates a dynamic proxy that implements this node interface.
+		 * The proxy class is generated on first use and its constructor is kept,
+		 * so later proxies cost a single constructor call
+		 */
+		Object proxy(InvocationHandler handler) {
+			MethodHandle constructor = proxy;
+			if (constructor == null) {
+				Object instance = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler);
+				try {
+					Constructor<?> c = instance.getClass().getConstructor(InvocationHandler.class);
+					c.setAccessible(true);
+					proxy = MethodHandles.lookup().unreflectConstructor(c).asType(
+							java.lang.invoke.MethodType.methodType(Object.class, InvocationHandler.class));
+				} catch (Exception e) {
+					throw new IllegalStateException("Cannot construct proxies for " + type.getName(), e);
+				}
+				return instance;
+			}
+			try {
+				return (Object) constructor.invokeExact(handler);
+			} catch (Throwable e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+		
+		public String toString() {
+			return type.getName();
+		}
+	}
+	
 	public MethodType typeOf(Method m) {
-		return MethodType.of(this, m);
+		Binding binding = bindings.get(m);
+		return binding != null? binding.type : MethodType.of(this, m);
+	}
+	
+	/**
+	 * Gets the compiled form of a schema method
+	 * 
+	 * @param m A method of the schema interface or one of its node interfaces
+	 * @return The binding for the method
+	 * @throws IllegalArgumentException if the method is not part of the schema
+	 */
+	public Binding binding(Method m) {
+		Binding binding = bindings.get(m);
+		if (binding == null) {
+			throw new IllegalArgumentException("Not a method of schema " + definition.getName() + ": " + m);
+		}
+		return binding;
+	}
+	
+	private static final ClassValue<Schema<?>> SCHEMAS = new ClassValue<Schema<?>>() {
+		@Override protected Schema<?> computeValue(Class<?> definition) {
+			return create(definition);
+		}
+	};
+	
+	private static <T> Schema<T> create(Class<T> definition) {
+		return new Schema<T>(definition);
+	}
+	
+	/**
+	 * Gets the Schema for a schema interface, using the default names.
+	 * The Schema is compiled on first use and shared afterwards
+	 * 
+	 * @param definition A schema interface
+	 * @return The shared Schema object for the interface
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Schema<T> of(Class<T> definition) {
+		return (Schema<T>) SCHEMAS.get(definition);
 	}
 	
 	/**
@@ -121,22 +518,225 @@ public class Schema<T> {
 	 * @param text Name of text-node methods
 	 */
 	public Schema(Class<T> definition, String namespace, String child, String text) {
-		this.namespace = namespace;
+		this.namespace = namespace.intern();
 		this.definition = definition;
 		this.childName = child;
 		this.textName = text;
+		Object event = FlightEvents.COMPILE.begin();
+		this.generated = generated(definition, child, text);
+		compile();
+		FlightEvents.COMPILE.commit(event, definition.getName(), nodes.size(), symbols.size(), generated != null);
+	}
+	
+	/**
+	 * Loads the dispatcher generated for a schema interface
+	 * 
+	 * @return The dispatcher, or null if the interface is not annotated with {@link Generate},
+	 * the generated classes are not present or were generated with different method names
+	 */
+	private static Generated generated(Class<?> definition, String child, String text) {
+		if (REFLECTION || !definition.isAnnotationPresent(Generate.class)) return null;
+		String name = definition.getName();
+		int pkg = name.lastIndexOf('.') + 1;
+		name = name.substring(0, pkg) + name.substring(pkg).replace('$', '_') + "_Dispatcher";
+		try {
+			Generated generated = (Generated) Class.forName(name, true, definition.getClassLoader())
+					.getDeclaredConstructor().newInstance();
+			return generated.childName().equals(child) && generated.textName().equals(text)? generated : null;
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException("Cannot load generated class " + name, e.getCause());
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot load generated class " + name, e);
+		}
+	}
+	
+	/**
+	 * @return The signature of a method in the form used by {@link Generated#methods()}
+	 */
+	private static String signature(Method m) {
+		StringBuilder sig = new StringBuilder();
+		sig.append(m.getDeclaringClass().getCanonicalName()).append('.').append(m.getName()).append('(');
+		Class<?>[] params = m.getParameterTypes();
+		for (int i = 0; i < params.length; i++) {
+			if (i > 0) sig.append(',');
+			sig.append(params[i].getCanonicalName());
+		}
+		return sig.append(')').toString();
+	}
+	
+	/**
+	 * Walks the schema interface and every node interface returned by its methods,
+	 * building the method bindings and lookup tables
+	 */
+	private void compile() {
+		Map<String, Integer> generatedMethods = new HashMap<String, Integer>();
+		if (generated != null) {
+			String[] methods = generated.methods();
+			for (int i = 0; i < methods.length; i++) {
+				generatedMethods.put(methods[i], i);
+			}
+		}
+		
+		LinkedList<Class<?>> pending = new LinkedList<Class<?>>();
+		pending.add(definition);
+		
+		while (!pending.isEmpty()) {
+			Class<?> type = pending.removeFirst();
+			if (nodes.containsKey(type)) continue;
+			NodeType node = new NodeType(type);
+			nodes.put(type, node);
+			
+			for (Method m : type.getMethods()) {
+				Binding binding = bindings.get(m);
+				if (binding == null) {
+					Integer index = generated != null? generatedMethods.get(signature(m)) : null;
+					binding = new Binding(m, MethodType.of(this, m), generated, index != null? index : -1);
+					bindings.put(m, binding);
+				}
+				index(node, binding);
+				
+				Class<?> ret = m.getReturnType();
+				if (ret.isInterface() && !nodes.containsKey(ret)) {
+					pending.add(ret);
+				}
+			}
+		}
+		
+		for (Binding binding : bindings.values()) {
+			binding.node = nodes.get(binding.returnType());
+		}
+		factoryIds = new Binding[symbols.size()];
+		textNodeFactoryIds = new Binding[symbols.size()];
+		for (Binding binding : factories.values()) {
+			factoryIds[symbols.id(binding.name())] = binding;
+		}
+		for (Binding binding : textNodeFactories.values()) {
+			textNodeFactoryIds[symbols.id(binding.name())] = binding;
+		}
+		for (NodeType parent : nodes.values()) {
+			parent.attributeIds = new Binding[symbols.size()];
+			for (Binding binding : parent.attributes.values()) {
+				parent.attributeIds[symbols.id(binding.name())] = binding;
+			}
+			for (Binding m : parent.childMethods) {
+				for (Class<?> child : nodes.keySet()) {
+					if (!parent.children.containsKey(child) && m.parameterType.isAssignableFrom(child)) {
+						parent.children.put(child, m);
+					}
+				}
+			}
+		}
+	}
+	
+	private void index(NodeType node, Binding binding) {
+		if (binding.type != MethodType.CHILD && binding.type != MethodType.TEXT) {
+			symbols.add(binding.name());
+		}
+		switch (binding.type) {
+		case CHILD:
+			node.childMethods.add(binding);
+			break;
+		case TEXT:
+			if (node.text == null) node.text = binding;
+			break;
+		case ATTRIBUTE:
+			if (!node.attributes.containsKey(binding.name())) node.attributes.put(binding.name(), binding);
+			break;
+		case FACTORY:
+			factories.put(binding.name(), binding);
+			break;
+		case TEXT_NODE_FACTORY:
+			Binding existing = textNodeFactories.get(binding.name());
+			if (existing == null || binding.parameterType == String.class) {
+				textNodeFactories.put(binding.name(), binding);
+			}
+			break;
+		}
 	}
 	
 	public Class<T> definition() {
 		return definition;
 	}
 	
+	/**
+	 * @return The generated dispatcher for the schema, or null if there is none
+	 */
+	Generated generated() {
+		return generated;
+	}
+	
 	public String namespace() {
 		return namespace;
 	}
 	
+	/**
+	 * Tests a namespace URI. The schema's namespace is interned,
+	 * so URIs from parsers that intern their symbols are matched by identity
+	 * 
+	 * @param uri A namespace URI
+	 * @return true if the URI is the schema's namespace
+	 */
 	public boolean isNamespace(String uri) {
-		return namespace.equals(uri);
+		return namespace == uri || namespace.equals(uri);
+	}
+	
+	/**
+	 * @return The table of the element and attribute names used by the schema
+	 */
+	public Symbols symbols() {
+		return symbols;
+	}
+	
+	/**
+	 * Gets a compiled node type
+	 * 
+	 * @param type A node interface
+	 * @return The compiled node type, or null if the interface is not part of the schema
+	 */
+	public NodeType node(Class<?> type) {
+		return nodes.get(type);
+	}
+	
+	/**
+	 * Gets a node factory
+	 * 
+	 * @param name The tag name of the node to be created
+	 * @return The factory binding, or null if there is no factory for the name
+	 */
+	public Binding factory(String name) {
+		return factories.get(name);
+	}
+	
+	/**
+	 * Gets a node factory
+	 * 
+	 * @param symbol The symbol id of the tag name
+	 * @return The factory binding, or null if there is no factory for the name
+	 */
+	public Binding factory(int symbol) {
+		return symbol >= 0? factoryIds[symbol] : null;
+	}
+	
+	/**
+	 * Gets a text-node factory
+	 * 
+	 * @param name The tag name of the node to be created
+	 * @return The text-node factory binding, or null if there is no text-node factory for the name
+	 */
+	public Binding textNodeFactory(String name) {
+		return textNodeFactories.get(name);
+	}
+	
+	/**
+	 * Gets a text-node factory
+	 * 
+	 * @param symbol The symbol id of the tag name
+	 * @return The text-node factory binding, or null if there is no text-node factory for the name
+	 */
+	public Binding textNodeFactory(int symbol) {
+		return symbol >= 0? textNodeFactoryIds[symbol] : null;
 	}
 	
 	/**
@@ -148,7 +748,15 @@ public class Schema<T> {
 	 * @throws NoSuchMethodException
 	 */
 	public Method getTextMethod(Class<?> parent) throws SecurityException, NoSuchMethodException {
-		return parent.getMethod(textName, String.class);
+		NodeType node = nodes.get(parent);
+		if (node == null || node.text == null) {
+			try {
+				return parent.getMethod(textName, String.class);
+			} catch (NoSuchMethodException e) {
+				return parent.getMethod(textName, CharSequence.class);
+			}
+		}
+		return node.text.method;
 	}
 	
 	/**
@@ -161,12 +769,12 @@ public class Schema<T> {
 	 * @throws NoSuchMethodException
 	 */
 	public Method getChildMethod(Class<?> parent, Class<?> child) throws NoSuchMethodException {
-		for (Method m : parent.getMethods()) {
-			if (typeOf(m) == MethodType.CHILD && m.getParameterTypes()[0].isAssignableFrom(child)) {
-				return m;
-			}
+		NodeType node = nodes.get(parent);
+		Binding binding = node != null? node.child(child) : null;
+		if (binding == null) {
+			throw new NoSuchMethodException("No child method for " + child.getSimpleName() + " found in " + parent.getSimpleName());
 		}
-		throw new NoSuchMethodException("No child method for " + child.getSimpleName() + " found in " + parent.getSimpleName());
+		return binding.method;
 	}
 	
 	/**
@@ -178,7 +786,11 @@ public class Schema<T> {
 	 * @throws NoSuchMethodException
 	 */
 	public Method getFactoryMethod(String name) throws SecurityException, NoSuchMethodException {
-		return definition.getMethod(name);
+		Binding binding = factories.get(name);
+		if (binding == null) {
+			throw new NoSuchMethodException("No factory method " + definition.getCanonicalName() + '.' + name);
+		}
+		return binding.method;
 	}
 	
 	/**
@@ -190,16 +802,20 @@ public class Schema<T> {
 	 * @throws NoSuchMethodException
 	 */
 	public Method getTextNodeFactoryMethod(String name) throws SecurityException, NoSuchMethodException {
-		return definition.getMethod(name, String.class);
+		Binding binding = textNodeFactories.get(name);
+		if (binding == null) {
+			throw new NoSuchMethodException("No text-node factory method " + definition.getCanonicalName() + '.' + name);
+		}
+		return binding.method;
 	}
 	
 	public Method getAttributeMethod(Class<?> nodeType, String name) throws NoSuchMethodException {
-		for (Method m : nodeType.getMethods()) {
-			if (m.getName().equals(name) && typeOf(m) == MethodType.ATTRIBUTE) {
-				return m;
-			}
+		NodeType node = nodes.get(nodeType);
+		Binding binding = node != null? node.attribute(name) : null;
+		if (binding == null) {
+			throw new NoSuchMethodException("No attribute method " + nodeType.getCanonicalName() + '.' + name);
 		}
-		throw new NoSuchMethodException("No attribute method " + nodeType.getCanonicalName() + '.' + name);
+		return binding.method;
 	}
 	
 	public String toString() {
@@ -208,47 +824,7 @@ public class Schema<T> {
 	
 	public static Object invoke(Method method, Object object, String val)
 				throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
-		return method.invoke(object, valueOf(val, method.getParameterTypes()[0]));
-	}
-
-	private static Object valueOf(String str, Class<?> type)
-			throws IllegalArgumentException {
-		if (type.isPrimitive()) {
-			if (type == char.class) type = Character.class;
-			else if (type == boolean.class) type = Boolean.class;
-			else if (type == byte.class) type = Byte.class;
-			else if (type == short.class) type = Short.class;
-			else if (type == int.class) type = Integer.class;
-			else if (type == long.class) type = Long.class;
-			else if (type == float.class) type = Float.class;
-			else type = Double.class;
-		} else if (str == null) {
-			return null;
-		}
-		if (type == Class.class)
-			try {
-				return Class.forName(str);
-			} catch (ClassNotFoundException e1) {
-				throw new RuntimeException(e1);
-			}
-		if (Enum.class.isAssignableFrom(type)) {
-			for (Object obj : type.getEnumConstants()) {
-				if (obj.toString().equals(str))
-					return obj;
-			}
-		}
-		if (type == String.class)
-			return str;
-		try {
-			return type.getMethod("valueOf", String.class).invoke(null, str);
-//		try {
-//			return type.getConstructor(String.class).newInstance(str);
-		} catch (Exception e) {
-			if ("".equals(str))
-				return null;
-			throw new IllegalArgumentException("Not able to construct "
-					+ type.getName() + " from value: " + str, e);
-		}
+		return method.invoke(object, Converters.of(method.getParameterTypes()[0]).convert(val));
 	}
 
 }
@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+/**
+ * Receives instrumentation events from the parser front ends and from {@link DocBinder}
+ * <p>
+ * A listener is installed with <code>setListener</code> on {@link SAXHandler}, {@link StaxReader}
+ * or {@link Utf8Scanner}, or with {@link DocBinder#bind(Schema, org.w3c.dom.Document, SchemaListener)}.
+ * Events are delivered on the thread that is parsing or building the document, so a listener
+ * shared between documents must be thread-safe, as {@link SchemaMetrics} is.
+ * When no listener is installed, none of the times are measured.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public interface SchemaListener {
+
+	/**
+	 * An element has been completed by a parser, or created by a binder
+	 *
+	 * @param name The element name
+	 * @param nanos For parsers, the time from the start tag to the end tag, including the content;
+	 * for binders, the time from creating the element until it is added to its parent,
+	 * including building its content
+	 */
+	void element(String name, long nanos);
+
+	/**
+	 * An attribute has been read or written
+	 *
+	 * @param name The attribute name
+	 * @param characters The number of UTF-16 characters in the value, not its encoded length
+	 */
+	void attribute(String name, int characters);
+
+	/**
+	 * A run of text has been read or written
+	 *
+	 * @param characters The number of UTF-16 characters, not the encoded length
+	 */
+	void text(int characters);
+
+	/**
+	 * A schema method has been invoked on the schema implementation by a parser,
+	 * or on a proxy bound by {@link DocBinder}
+	 *
+	 * @param method The method
+	 * @param nanos The time taken by the call
+	 */
+	void invoked(Schema.Binding method, long nanos);
+}
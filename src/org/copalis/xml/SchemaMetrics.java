@@ -0,0 +1,310 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A {@link SchemaListener} that collects counts, times and latency histograms
+ * per element name and per schema method, and counts attributes and text
+ * <p>
+ * All counters are {@link LongAdder}s, so one instance can be shared by every parser
+ * and binder in a program without contention. Histograms have a bucket for each power of two
+ * nanoseconds, so percentiles are accurate to within a factor of two.
+ * The metrics can be read directly, or through JMX once {@link #register(String)} has been called.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public class SchemaMetrics implements SchemaListener, SchemaMetricsMBean {
+
+	private final ConcurrentMap<String, Stats> elements = new ConcurrentHashMap<String, Stats>();
+	private final ConcurrentMap<Schema.Binding, Stats> methods = new ConcurrentHashMap<Schema.Binding, Stats>();
+	private final ConcurrentMap<String, Counts> attributes = new ConcurrentHashMap<String, Counts>();
+	private final LongAdder textRuns = new LongAdder();
+	private final LongAdder textChars = new LongAdder();
+
+	public void element(String name, long nanos) {
+		Stats stats = elements.get(name);
+		if (stats == null) stats = putIfAbsent(elements, name, new Stats());
+		stats.add(nanos);
+	}
+
+	public void attribute(String name, int characters) {
+		Counts counts = attributes.get(name);
+		if (counts == null) counts = putIfAbsent(attributes, name, new Counts());
+		counts.count.increment();
+		counts.chars.add(characters);
+	}
+
+	public void text(int characters) {
+		textRuns.increment();
+		textChars.add(characters);
+	}
+
+	public void invoked(Schema.Binding method, long nanos) {
+		Stats stats = methods.get(method);
+		if (stats == null) stats = putIfAbsent(methods, method, new Stats());
+		stats.add(nanos);
+	}
+
+	private static <K, V> V putIfAbsent(ConcurrentMap<K, V> map, K key, V value) {
+		V existing = map.putIfAbsent(key, value);
+		return existing != null? existing : value;
+	}
+
+	/**
+	 * @return The statistics of each element name, busiest first
+	 */
+	public Map<String, Stats> elements() {
+		return sorted(elements);
+	}
+
+	/**
+	 * @return The statistics of each schema method, busiest first, named by its signature
+	 * without packages, such as <code>OrderSchema.Order._(OrderSchema.Order.OrderChild)</code>.
+	 * Methods whose signatures would otherwise be the same are named with their packages
+	 */
+	public Map<String, Stats> methods() {
+		Set<String> names = new HashSet<String>(), ambiguous = new HashSet<String>();
+		for (Schema.Binding binding : methods.keySet()) {
+			String name = signature(binding.method(), false);
+			if (!names.add(name)) ambiguous.add(name);
+		}
+		Map<String, Stats> named = new LinkedHashMap<String, Stats>();
+		for (Map.Entry<Schema.Binding, Stats> e : methods.entrySet()) {
+			Method method = e.getKey().method();
+			String name = signature(method, false);
+			named.put(ambiguous.contains(name)? signature(method, true) : name, e.getValue());
+		}
+		return sorted(named);
+	}
+
+	private static String signature(Method m, boolean packages) {
+		StringBuilder sig = new StringBuilder();
+		sig.append(name(m.getDeclaringClass(), packages)).append('.').append(m.getName()).append('(');
+		Class<?>[] params = m.getParameterTypes();
+		for (int i = 0; i < params.length; i++) {
+			if (i > 0) sig.append(", ");
+			sig.append(name(params[i], packages));
+		}
+		return sig.append(')').toString();
+	}
+
+	private static String name(Class<?> type, boolean packages) {
+		String name = type.getCanonicalName();
+		if (name == null) return type.getName();
+		Class<?> component = type;
+		while (component.isArray()) component = component.getComponentType();
+		Package p = component.getPackage();
+		if (!packages && p != null && name.startsWith(p.getName() + '.')) {
+			name = name.substring(p.getName().length() + 1);
+		}
+		return name;
+	}
+
+	private static Map<String, Stats> sorted(Map<String, Stats> stats) {
+		List<Map.Entry<String, Stats>> entries = new ArrayList<Map.Entry<String, Stats>>(stats.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Stats>>() {
+			public int compare(Map.Entry<String, Stats> a, Map.Entry<String, Stats> b) {
+				return Long.compare(b.getValue().totalNanos(), a.getValue().totalNanos());
+			}
+		});
+		Map<String, Stats> map = new LinkedHashMap<String, Stats>();
+		for (Map.Entry<String, Stats> e : entries) {
+			map.put(e.getKey(), e.getValue());
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	public long getElementCount() {
+		long n = 0;
+		for (Stats stats : elements.values()) n += stats.count();
+		return n;
+	}
+
+	public long getAttributeCount() {
+		long n = 0;
+		for (Counts counts : attributes.values()) n += counts.count.sum();
+		return n;
+	}
+
+	public long getTextCharacters() {
+		return textChars.sum();
+	}
+
+	/**
+	 * @return The number of runs of text
+	 */
+	public long getTextRuns() {
+		return textRuns.sum();
+	}
+
+	public long getInvocationCount() {
+		long n = 0;
+		for (Stats stats : methods.values()) n += stats.count();
+		return n;
+	}
+
+	public String[] getElements() {
+		return lines(elements());
+	}
+
+	public String[] getMethods() {
+		return lines(methods());
+	}
+
+	public String[] getAttributes() {
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<String, Counts> e : attributes.entrySet()) {
+			lines.add(e.getKey() + ": count " + e.getValue().count.sum() + ", characters " + e.getValue().chars.sum());
+		}
+		Collections.sort(lines);
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	private static String[] lines(Map<String, Stats> stats) {
+		String[] lines = new String[stats.size()];
+		int i = 0;
+		for (Map.Entry<String, Stats> e : stats.entrySet()) {
+			lines[i++] = e.getKey() + ": " + e.getValue();
+		}
+		return lines;
+	}
+
+	/**
+	 * Discards all the metrics collected so far
+	 */
+	public void reset() {
+		elements.clear();
+		methods.clear();
+		attributes.clear();
+		textRuns.reset();
+		textChars.reset();
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server
+	 *
+	 * @param name The value of the <code>name</code> key of the object name,
+	 * which is <code>org.copalis.xml:type=SchemaMetrics,name=</code><i>name</i>
+	 * @return The object name
+	 * @throws JMException If the name is not valid or is already registered
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("org.copalis.xml:type=SchemaMetrics,name=" + name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append(getElementCount()).append(" elements, ").append(getAttributeCount()).append(" attributes, ")
+			.append(getTextCharacters()).append(" characters of text, ").append(getInvocationCount()).append(" method calls");
+		return s.toString();
+	}
+
+	private static final class Counts {
+		final LongAdder count = new LongAdder();
+		final LongAdder chars = new LongAdder();
+	}
+
+	/**
+	 * The count, total and maximum time, and histogram of an element name or a method
+	 */
+	public static final class Stats {
+		private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+			public long applyAsLong(long a, long b) {
+				return Math.max(a, b);
+			}
+		};
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(MAX, 0);
+		/** Bucket i counts times of less than 2<sup>i</sup> nanoseconds, and at least half that */
+		private final LongAdder[] buckets = new LongAdder[64];
+
+		Stats() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void add(long time) {
+			count.increment();
+			nanos.add(time);
+			max.accumulate(time);
+			buckets[time > 0? 64 - Long.numberOfLeadingZeros(time) : 0].increment();
+		}
+
+		public long count() {
+			return count.sum();
+		}
+
+		public long totalNanos() {
+			return nanos.sum();
+		}
+
+		public long maxNanos() {
+			return max.get();
+		}
+
+		/**
+		 * @param percentile A percentile, between 0 and 100
+		 * @return A time that at least the given percentage of times were less than,
+		 * and that is at most twice the actual percentile
+		 */
+		public long percentileNanos(double percentile) {
+			long total = count(), seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i].sum();
+				if (seen > 0 && seen >= total * percentile / 100) return i < 63? 1L << i : Long.MAX_VALUE;
+			}
+			return 0;
+		}
+
+		public String toString() {
+			long n = count();
+			return "count " + n + ", total " + time(totalNanos()) + ", mean " + time(n > 0? totalNanos() / n : 0)
+					+ ", p50 < " + time(percentileNanos(50)) + ", p99 < " + time(percentileNanos(99))
+					+ ", max " + time(maxNanos());
+		}
+
+		private static String time(long nanos) {
+			if (nanos < 10000) return nanos + "ns";
+			if (nanos < 10000000) return nanos / 1000 + "us";
+			return nanos / 1000000 + "ms";
+		}
+	}
+}
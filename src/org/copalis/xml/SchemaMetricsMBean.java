@@ -0,0 +1,49 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+/**
+ * The JMX management interface of {@link SchemaMetrics}
+ *
+ * @author gilesjb
+ */
+public interface SchemaMetricsMBean {
+
+	long getElementCount();
+
+	long getAttributeCount();
+
+	long getTextCharacters();
+
+	long getInvocationCount();
+
+	/**
+	 * @return A summary of each element name, busiest first
+	 */
+	String[] getElements();
+
+	/**
+	 * @return A summary of each schema method, busiest first
+	 */
+	String[] getMethods();
+
+	/**
+	 * @return The number of times each attribute has been read or written, and the total number of characters in its values
+	 */
+	String[] getAttributes();
+
+	void reset();
+}
@@ -0,0 +1,372 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * An annotation processor that generates reflection-free classes for schema interfaces
+ * annotated with {@link Schema.Generate}
+ * <p>
+ * For a schema interface <code>Name</code> two classes are generated in the same package:
+ * </p>
+ * <ul>
+ * <li><code>Name_Binder</code> implements the schema interface, with a nested class
+ * implementing each node interface, by calling a {@link Generated.Writer}.
+ * It is used by DocBinder and StreamBinder instead of dynamic proxies</li>
+ * <li><code>Name_Dispatcher</code> implements {@link Generated}, invoking every schema method
+ * through a <code>switch</code>. It is used by SAXHandler and StaxReader instead of
+ * method handles</li>
+ * </ul>
+ * <p>
+ * Methods are classified the same way as {@link Schema.MethodType#of}.
+ * The processor is registered in <code>META-INF/services</code>, so it runs whenever
+ * this library is on the compiler's class path.
+ * </p>
+ *
+ * @author gilesjb
+ */
+@SupportedAnnotationTypes("org.copalis.xml.Schema.Generate")
+public class SchemaProcessor extends AbstractProcessor {
+
+	@Override public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+		for (Element e : env.getElementsAnnotatedWith(Schema.Generate.class)) {
+			if (e.getKind() != ElementKind.INTERFACE) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+						"Only schema interfaces can be annotated with @Schema.Generate", e);
+				continue;
+			}
+			try {
+				new Model((TypeElement) e).write();
+			} catch (IllegalArgumentException ex) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, ex.getMessage(), e);
+			} catch (IOException ex) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, ex.toString(), e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The schema interface and its node interfaces, with their methods classified
+	 */
+	private class Model {
+		final TypeElement schema;
+		final String pkg, name, childName, textName;
+		final Map<TypeElement, List<ExecutableElement>> nodes = new LinkedHashMap<TypeElement, List<ExecutableElement>>();
+		final Map<String, ExecutableElement> methods = new LinkedHashMap<String, ExecutableElement>();
+
+		Model(TypeElement schema) {
+			this.schema = schema;
+			this.pkg = processingEnv.getElementUtils().getPackageOf(schema).getQualifiedName().toString();
+			this.name = flatName(schema);
+			Schema.Child child = schema.getAnnotation(Schema.Child.class);
+			Schema.Text text = schema.getAnnotation(Schema.Text.class);
+			this.childName = child != null? child.value() : "_";
+			this.textName = text != null? text.value() : "$";
+
+			LinkedList<TypeElement> pending = new LinkedList<TypeElement>();
+			pending.add(schema);
+			while (!pending.isEmpty()) {
+				TypeElement type = pending.removeFirst();
+				if (nodes.containsKey(type)) continue;
+				List<ExecutableElement> list = new ArrayList<ExecutableElement>();
+				nodes.put(type, list);
+
+				for (ExecutableElement m : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+					if (!m.getModifiers().contains(Modifier.ABSTRACT)
+							|| m.getEnclosingElement().getKind() != ElementKind.INTERFACE) continue;
+					list.add(m);
+					if (!methods.containsKey(signature(m))) methods.put(signature(m), m);
+					TypeElement ret = node(m.getReturnType());
+					if (ret != null && !nodes.containsKey(ret)) pending.add(ret);
+				}
+			}
+		}
+
+		Schema.MethodType typeOf(ExecutableElement m) {
+			String name = m.getSimpleName().toString();
+			List<? extends VariableElement> params = m.getParameters();
+			boolean root = m.getEnclosingElement().equals(schema);
+
+			if (childName.equals(name)) {
+				if (params.size() == 1) return Schema.MethodType.CHILD;
+			} else if (textName.equals(name)) {
+				if (!root && params.size() == 1 && isText(params.get(0).asType())) return Schema.MethodType.TEXT;
+			} else if (root) {
+				if (params.isEmpty()) return Schema.MethodType.FACTORY;
+				if (params.size() == 1) return Schema.MethodType.TEXT_NODE_FACTORY;
+			} else {
+				if (params.size() == 1) return Schema.MethodType.ATTRIBUTE;
+			}
+			throw new IllegalArgumentException("Illegal Schema method: " + m.getEnclosingElement() + '.' + m);
+		}
+
+		void write() throws IOException {
+			writeBinder();
+			writeDispatcher();
+		}
+
+		private void writeBinder() throws IOException {
+			PrintWriter out = open(name + "_Binder");
+			out.println("public final class " + name + "_Binder extends org.copalis.xml.Generated.Node implements "
+					+ schema.getQualifiedName() + " {");
+			out.println();
+			out.println("\tpublic " + name + "_Binder(org.copalis.xml.Generated.Writer writer) {");
+			out.println("\t\tsuper(writer, null);");
+			out.println("\t}");
+			methods(schema, out, "\t");
+
+			for (TypeElement node : nodes.keySet()) {
+				if (node.equals(schema)) continue;
+				out.println();
+				out.println("\tstatic final class " + flatName(node) + " extends org.copalis.xml.Generated.Node implements "
+						+ node.getQualifiedName() + " {");
+				out.println();
+				out.println("\t\t" + flatName(node) + "(org.copalis.xml.Generated.Writer writer, Object element) {");
+				out.println("\t\t\tsuper(writer, element);");
+				out.println("\t\t}");
+				methods(node, out, "\t\t");
+				out.println("\t}");
+			}
+			out.println("}");
+			out.close();
+		}
+
+		private void methods(TypeElement node, PrintWriter out, String indent) {
+			for (ExecutableElement m : nodes.get(node)) {
+				List<? extends VariableElement> params = m.getParameters();
+				TypeMirror ret = m.getReturnType();
+				String arg = params.isEmpty()? null : params.get(0).getSimpleName().toString();
+				String name = m.getSimpleName().toString();
+
+				out.println();
+				out.print(indent + "public " + erasure(ret) + ' ' + name + '(');
+				if (arg != null) out.print(erasure(params.get(0).asType()) + ' ' + arg);
+				out.println(") {");
+				String body = indent + '\t';
+				String element = "element";
+				switch (typeOf(m)) {
+				case CHILD:
+					out.println(body + "writer.child(element, child(" + arg + "));");
+					break;
+				case TEXT:
+					out.println(body + "writer.text(element, " + arg + ".toString());");
+					break;
+				case ATTRIBUTE:
+					out.println(body + "writer.attribute(element, \"" + name + "\", " + string(params.get(0)) + ");");
+					break;
+				case FACTORY:
+					out.println(body + "Object e = writer.element(\"" + name + "\");");
+					element = "e";
+					break;
+				case TEXT_NODE_FACTORY:
+					out.println(body + "Object e = writer.element(\"" + name + "\");");
+					out.println(body + "writer.text(e, " + string(params.get(0)) + ");");
+					element = "e";
+					break;
+				}
+				if (ret.getKind() != TypeKind.VOID) {
+					if (element.equals("element") && processingEnv.getTypeUtils().isAssignable(node.asType(), ret)) {
+						out.println(body + "return this;");
+					} else if (node(ret) != null) {
+						out.println(body + "return new " + flatName(node(ret)) + "(writer, " + element + ");");
+					} else {
+						throw new IllegalArgumentException("Schema node types must be interfaces: " + m.getEnclosingElement() + '.' + m);
+					}
+				}
+				out.println(indent + "}");
+			}
+		}
+
+		private void writeDispatcher() throws IOException {
+			PrintWriter out = open(name + "_Dispatcher");
+			out.println("public final class " + name + "_Dispatcher implements org.copalis.xml.Generated {");
+			out.println();
+			out.println("\tprivate static final String[] METHODS = {");
+			for (String signature : methods.keySet()) {
+				out.println("\t\t\"" + signature + "\",");
+			}
+			out.println("\t};");
+			out.println();
+			out.println("\tpublic String childName() {");
+			out.println("\t\treturn \"" + childName + "\";");
+			out.println("\t}");
+			out.println();
+			out.println("\tpublic String textName() {");
+			out.println("\t\treturn \"" + textName + "\";");
+			out.println("\t}");
+			out.println();
+			out.println("\tpublic String[] methods() {");
+			out.println("\t\treturn METHODS.clone();");
+			out.println("\t}");
+			out.println();
+			out.println("\tpublic Object bind(org.copalis.xml.Generated.Writer writer) {");
+			out.println("\t\treturn new " + name + "_Binder(writer);");
+			out.println("\t}");
+			out.println();
+			out.println("\tpublic Object invoke(int method, Object target, Object arg) throws Exception {");
+			out.println("\t\tswitch (method) {");
+			int index = 0;
+			for (ExecutableElement m : methods.values()) {
+				String arg = "";
+				if (!m.getParameters().isEmpty()) {
+					TypeMirror param = m.getParameters().get(0).asType();
+					String type = param.getKind().isPrimitive()
+							? processingEnv.getTypeUtils().boxedClass((PrimitiveType) param).getQualifiedName().toString()
+							: erasure(param);
+					arg = '(' + type + ") arg";
+				}
+				out.print("\t\tcase " + index++ + ": ");
+				out.println(call(m, arg));
+			}
+			out.println("\t\tdefault: throw new IllegalArgumentException(\"No method \" + method);");
+			out.println("\t\t}");
+			out.println("\t}");
+
+			primitive(out, TypeKind.INT, "Int", "int");
+			primitive(out, TypeKind.LONG, "Long", "long");
+			primitive(out, TypeKind.DOUBLE, "Double", "double");
+			primitive(out, TypeKind.BOOLEAN, "Boolean", "boolean");
+			out.println("}");
+			out.close();
+		}
+
+		/**
+		 * Writes the override of a primitive form of {@link Generated#invoke(int, Object, Object)}
+		 * for the methods that take the primitive type, if there are any
+		 */
+		private void primitive(PrintWriter out, TypeKind kind, String suffix, String type) {
+			boolean any = false;
+			int index = 0;
+			for (ExecutableElement m : methods.values()) {
+				int i = index++;
+				if (m.getParameters().size() != 1 || m.getParameters().get(0).asType().getKind() != kind) continue;
+				if (!any) {
+					out.println();
+					out.println("\t@Override public Object invoke" + suffix + "(int method, Object target, " + type + " arg) throws Exception {");
+					out.println("\t\tswitch (method) {");
+					any = true;
+				}
+				out.println("\t\tcase " + i + ": " + call(m, "arg"));
+			}
+			if (any) {
+				out.println("\t\tdefault: return invoke(method, target, (Object) arg);");
+				out.println("\t\t}");
+				out.println("\t}");
+			}
+		}
+
+		/**
+		 * @return A statement that calls a method on <code>target</code> and returns the result
+		 */
+		private String call(ExecutableElement m, String arg) {
+			String call = "((" + ((TypeElement) m.getEnclosingElement()).getQualifiedName() + ") target)."
+					+ m.getSimpleName() + '(' + arg + ')';
+			return m.getReturnType().getKind() == TypeKind.VOID? call + "; return null;" : "return " + call + ';';
+		}
+
+		private PrintWriter open(String simpleName) throws IOException {
+			String qualified = pkg.length() > 0? pkg + '.' + simpleName : simpleName;
+			PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualified, schema).openWriter());
+			if (pkg.length() > 0) {
+				out.println("package " + pkg + ';');
+				out.println();
+			}
+			out.println("/**");
+			out.println(" * Generated by " + SchemaProcessor.class.getName() + " from " + schema.getQualifiedName());
+			out.println(" */");
+			return out;
+		}
+
+		/**
+		 * @return The interface a type refers to, or null if it is not an interface
+		 */
+		private TypeElement node(TypeMirror type) {
+			if (type.getKind() != TypeKind.DECLARED) return null;
+			Element e = ((DeclaredType) type).asElement();
+			return e.getKind() == ElementKind.INTERFACE? (TypeElement) e : null;
+		}
+
+		/**
+		 * @return The name of a type relative to its package, with '.' replaced by '_'
+		 */
+		private String flatName(TypeElement type) {
+			String qualified = type.getQualifiedName().toString();
+			String prefix = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+			if (prefix.length() > 0 && qualified.startsWith(prefix + '.')) {
+				qualified = qualified.substring(prefix.length() + 1);
+			}
+			return qualified.replace('.', '_');
+		}
+
+		private String string(VariableElement param) {
+			String name = param.getSimpleName().toString();
+			return param.asType().getKind().isPrimitive()? "String.valueOf(" + name + ')' : name + ".toString()";
+		}
+
+		private boolean isText(TypeMirror type) {
+			String name = erasure(type);
+			return name.equals("java.lang.String") || name.equals("java.lang.CharSequence");
+		}
+
+		private String erasure(TypeMirror type) {
+			return processingEnv.getTypeUtils().erasure(type).toString();
+		}
+
+		/**
+		 * @return The method's signature in the form used by {@link Generated#methods()}
+		 */
+		private String signature(ExecutableElement m) {
+			StringBuilder sig = new StringBuilder();
+			sig.append(((TypeElement) m.getEnclosingElement()).getQualifiedName())
+				.append('.').append(m.getSimpleName()).append('(');
+			for (int i = 0; i < m.getParameters().size(); i++) {
+				if (i > 0) sig.append(',');
+				sig.append(erasure(m.getParameters().get(i).asType()));
+			}
+			return sig.append(')').toString();
+		}
+	}
+}
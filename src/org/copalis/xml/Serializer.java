@@ -0,0 +1,221 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Writes DOM trees, such as those built by {@link DocBinder}, as UTF-8 encoded XML
+ * <p>
+ * The output matches that of a JAXP Transformer with the same indentation settings,
+ * but is written directly to the stream or channel through pooled buffers.
+ * A default namespace declaration is written wherever an element's namespace differs
+ * from its parent's; prefixed names must be declared by <code>xmlns</code> attributes
+ * in the document itself.
+ * </p>
+ * <p>
+ * A Serializer has no mutable state, so it can be shared between threads.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public class Serializer {
+
+	private final int indent;
+
+	/**
+	 * Constructs a Serializer that writes without indentation
+	 */
+	public Serializer() {
+		this(0);
+	}
+
+	/**
+	 * Constructs a Serializer that indents nested elements
+	 *
+	 * @param indent The number of spaces per level of nesting, or 0 for no indentation
+	 */
+	public Serializer(int indent) {
+		this.indent = indent;
+	}
+
+	/**
+	 * Writes a node and its descendants.
+	 * If the node is a Document, an XML declaration is written first.
+	 * The stream is flushed but not closed.
+	 *
+	 * @param node A Document, Element or other node
+	 * @param out The output stream
+	 * @throws IOException
+	 */
+	public void write(Node node, OutputStream out) throws IOException {
+		write(node, new Utf8Output(out));
+	}
+
+	/**
+	 * Writes a node and its descendants to a channel.
+	 * The channel is not closed.
+	 *
+	 * @param node A Document, Element or other node
+	 * @param out The output channel
+	 * @throws IOException
+	 */
+	public void write(Node node, WritableByteChannel out) throws IOException {
+		write(node, new Utf8Output(out));
+	}
+
+	private void write(Node node, Utf8Output out) throws IOException {
+		Object event = FlightEvents.SERIALIZE.begin();
+		try {
+			if (node.getNodeType() == Node.DOCUMENT_NODE) {
+				out.markup("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+				for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+					if (indent > 0) out.markup('\n');
+					node(child, "", 0, out);
+				}
+				if (indent > 0) out.markup('\n');
+			} else {
+				node(node, "", 0, out);
+			}
+		} finally {
+			out.close();
+		}
+		FlightEvents.SERIALIZE.commit(event, null, out.elements, out.size());
+	}
+
+	private void node(Node node, String namespace, int depth, Utf8Output out) throws IOException {
+		switch (node.getNodeType()) {
+		case Node.ELEMENT_NODE:
+			element((Element) node, namespace, depth, out);
+			break;
+		case Node.TEXT_NODE:
+			out.text(node.getNodeValue());
+			break;
+		case Node.CDATA_SECTION_NODE:
+			cdata(node.getNodeValue(), out);
+			break;
+		case Node.COMMENT_NODE:
+			out.markup("<!--");
+			out.markup(node.getNodeValue());
+			out.markup("-->");
+			break;
+		case Node.PROCESSING_INSTRUCTION_NODE:
+			out.markup("<?");
+			out.markup(node.getNodeName());
+			String data = node.getNodeValue();
+			if (data != null && data.length() > 0) {
+				out.markup(' ');
+				out.markup(data);
+			}
+			out.markup("?>");
+			break;
+		case Node.ENTITY_REFERENCE_NODE:
+		case Node.DOCUMENT_FRAGMENT_NODE:
+			content(node, namespace, depth, out);
+			break;
+		}
+	}
+
+	/**
+	 * Writes a CDATA section, split wherever the value contains <code>]]&gt;</code>
+	 */
+	private static void cdata(String value, Utf8Output out) throws IOException {
+		out.markup("<![CDATA[");
+		int start = 0;
+		for (int end; (end = value.indexOf("]]>", start)) >= 0; start = end + 2) {
+			out.markup(value.substring(start, end + 2));
+			out.markup("]]><![CDATA[");
+		}
+		out.markup(start == 0? value : value.substring(start));
+		out.markup("]]>");
+	}
+
+	private void element(Element e, String namespace, int depth, Utf8Output out) throws IOException {
+		String name = e.getNodeName();
+		out.elements++;
+		out.markup('<');
+		out.markup(name);
+
+		NamedNodeMap attrs = e.hasAttributes()? e.getAttributes() : null;
+		int count = attrs != null? attrs.getLength() : 0;
+		String declared = null;
+		for (int i = 0; i < count; i++) {
+			Attr attr = (Attr) attrs.item(i);
+			if ("xmlns".equals(attr.getName())) declared = attr.getValue();
+		}
+		
+		String ns = e.getNamespaceURI();
+		if (ns == null) ns = "";
+		if (declared != null) {
+			namespace = declared;
+		} else if (e.getPrefix() == null && !ns.equals(namespace)) {
+			out.markup(" xmlns=\"");
+			out.attribute(ns);
+			out.markup('"');
+			namespace = ns;
+		}
+
+		for (int i = 0; i < count; i++) {
+			Attr attr = (Attr) attrs.item(i);
+			out.markup(' ');
+			out.markup(attr.getName());
+			out.markup("=\"");
+			out.attribute(attr.getValue());
+			out.markup('"');
+		}
+
+		if (!e.hasChildNodes()) {
+			out.markup("/>");
+			return;
+		}
+		out.markup('>');
+		content(e, namespace, depth, out);
+		out.markup("</");
+		out.markup(name);
+		out.markup('>');
+	}
+
+	private void content(Node parent, String namespace, int depth, Utf8Output out) throws IOException {
+		boolean nested = false;
+		if (indent > 0) {
+			for (Node child = parent.getFirstChild(); child != null && !nested; child = child.getNextSibling()) {
+				nested = child.getNodeType() == Node.ELEMENT_NODE;
+			}
+		}
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (nested) {
+				if (child.getNodeType() == Node.TEXT_NODE && child.getNodeValue().trim().length() == 0) continue;
+				newline(depth + 1, out);
+			}
+			node(child, namespace, depth + 1, out);
+		}
+		if (nested) newline(depth, out);
+	}
+
+	private void newline(int depth, Utf8Output out) throws IOException {
+		out.markup('\n');
+		for (int i = depth * indent; i > 0; i--) {
+			out.markup(' ');
+		}
+	}
+}
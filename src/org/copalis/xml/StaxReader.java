@@ -0,0 +1,157 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Pulls events from a StAX XMLStreamReader and converts them into calls to a
+ * schema implementation, with the same semantics as {@link SAXHandler}.
+ * <p>
+ * The caller controls the loop: {@link #next()} reads until the next element
+ * has been completed, so a document can be processed one element
+ * (or one record) at a time. {@link #read()} processes the rest of the document.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public class StaxReader {
+
+	private final Schema<?> schema;
+	private final Dispatcher dispatcher;
+	private final XMLStreamReader reader;
+	private boolean started;
+
+	public <T> StaxReader(Class<T> definition, T handler, XMLStreamReader reader) {
+		this(Schema.of(definition), handler, reader);
+	}
+
+	public <T> StaxReader(Schema<T> schema, T handler, XMLStreamReader reader) {
+		this.schema = schema;
+		this.dispatcher = new Dispatcher(schema, handler);
+		this.reader = reader;
+	}
+
+	/**
+	 * Sets how whitespace in text is treated. The default is {@link Whitespace#TRIM}
+	 *
+	 * @param mode The whitespace mode
+	 */
+	public void setWhitespace(Whitespace mode) {
+		dispatcher.whitespace(mode);
+	}
+	
+	/**
+	 * Installs a listener for instrumentation events. Install it before the document is read
+	 * 
+	 * @param listener The listener, or null for none
+	 */
+	public void setListener(SchemaListener listener) {
+		dispatcher.listener(listener);
+	}
+	
+	/**
+	 * Streams records: each completed node of the record type is passed to the consumer
+	 * as soon as its end tag has been read, instead of being added to its parent node,
+	 * so the schema implementation does not have to hold the whole document
+	 * 
+	 * @param type The node interface of the records
+	 * @param consumer The consumer of the records, or null to add them to their parents
+	 */
+	public <R> void setRecords(Class<R> type, Consumer<? super R> consumer) {
+		dispatcher.records(type, consumer);
+	}
+
+	/**
+	 * @return The number of schema elements that have been started but not yet completed
+	 */
+	public int depth() {
+		return dispatcher.depth();
+	}
+
+	/**
+	 * Reads events until the next schema element has been completed
+	 *
+	 * @return true if an element was completed, false if the end of the document was reached
+	 * @throws XMLStreamException
+	 */
+	public boolean next() throws XMLStreamException {
+		if (!started) {
+			started = true;
+			dispatcher.startDocument();
+		}
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				if (isNamespace()) start();
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				dispatcher.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				if (isNamespace()) {
+					try {
+						dispatcher.end();
+					} catch (Exception e) {
+						throw exception(e);
+					}
+					return true;
+				}
+				break;
+			case XMLStreamConstants.END_DOCUMENT:
+				dispatcher.endDocument(0);
+				break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the remainder of the document
+	 *
+	 * @throws XMLStreamException
+	 */
+	public void read() throws XMLStreamException {
+		while (next());
+	}
+
+	private boolean isNamespace() {
+		String uri = reader.getNamespaceURI();
+		return schema.isNamespace(uri != null? uri : "");
+	}
+
+	private void start() throws XMLStreamException {
+		try {
+			int n = reader.getAttributeCount();
+			dispatcher.start(reader.getLocalName(), n);
+			for (int i = 0; i < n; i++) {
+				dispatcher.attribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+			}
+		} catch (Exception e) {
+			throw exception(e);
+		}
+	}
+
+	private XMLStreamException exception(Exception e) {
+		return new XMLStreamException(e.toString(), reader.getLocation(), e);
+	}
+}
@@ -0,0 +1,553 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * A dynamic proxy for schema interfaces that writes XML directly to a stream,
+ * without building a DOM Document
+ * <p>
+ * The first element created through the proxy becomes the document element,
+ * and everything attached to it is written as soon as it is complete.
+ * Elements that are created and filled in before being attached to the document
+ * are buffered until they are attached, so memory use is bounded by the size of
+ * the largest such subtree rather than by the size of the document.
+ * </p>
+ * <p>
+ * An element can be given attributes until its first child or text is added,
+ * and can be added to until its next sibling is added or its parent is closed.
+ * Attributes are written in name order, as a DOM serializer writes them.
+ * Calling the root-node method completes the document and flushes the output.
+ * </p>
+ * <p>
+ * If classes have been generated for the schema by {@link SchemaProcessor},
+ * the generated writer is used instead of a proxy.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public class StreamBinder implements InvocationHandler {
+
+	final Context context;
+	final Element element;
+
+	StreamBinder(Context context, Element element) {
+		this.context = context;
+		this.element = element;
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (Object.class == method.getDeclaringClass()) {
+			return method.invoke(this, args);
+		}
+		Schema.Binding binding = context.schema.binding(method);
+		switch (binding.type()) {
+		case CHILD:
+			Element child = context.element(args[0]);
+			if (element == null) {
+				context.document(child);
+			} else {
+				context.child(element, child);
+			}
+			break;
+		case TEXT:
+			context.text(element, args[0].toString());
+			break;
+		case TEXT_NODE_FACTORY:
+			Element text = context.create(binding.name());
+			context.text(text, args[0].toString());
+			return proxy(binding.node(), new StreamBinder(context, text));
+		case FACTORY:
+			return proxy(binding.node(), new StreamBinder(context, context.create(binding.name())));
+		case ATTRIBUTE:
+			context.attribute(element, binding.name(), args[0].toString());
+			break;
+		}
+		return proxy;
+	}
+
+	private static Object proxy(Schema.NodeType type, StreamBinder binder) {
+		if (type == null) {
+			throw new IllegalArgumentException("Schema node types must be interfaces");
+		}
+		return type.proxy(binder);
+	}
+
+	/**
+	 * Creates a new instance of the supplied interface that writes to an XMLStreamWriter.
+	 * The writer is flushed but not closed when the document is complete.
+	 *
+	 * @param <T>
+	 * @param definition A schema interface
+	 * @param writer A writer positioned at the start of a document
+	 * @return A new instance of the schema, bound to the writer
+	 */
+	public static <T> T bind(Class<T> definition, XMLStreamWriter writer) {
+		return bind(Schema.of(definition), writer);
+	}
+
+	public static <T> T bind(Schema<T> schema, XMLStreamWriter writer) {
+		return bind(schema, new WriterSink(writer));
+	}
+
+	/**
+	 * Creates a new instance of the supplied interface that writes UTF-8 encoded XML
+	 * to an OutputStream.
+	 * The stream is flushed but not closed when the document is complete.
+	 *
+	 * @param <T>
+	 * @param definition A schema interface
+	 * @param out An output stream
+	 * @return A new instance of the schema, bound to the stream
+	 */
+	public static <T> T bind(Class<T> definition, OutputStream out) {
+		return bind(Schema.of(definition), out);
+	}
+
+	public static <T> T bind(Schema<T> schema, OutputStream out) {
+		return bind(schema, new StreamSink(new Utf8Output(out)));
+	}
+
+	/**
+	 * Creates a new instance of the supplied interface that writes a fragment of a document
+	 * to an OutputStream: the subtree of the node that is passed to {@link #fragment(Object)},
+	 * without an XML declaration or namespace declaration
+	 */
+	static <T> T bindFragment(Schema<T> schema, OutputStream out) {
+		Context context = new Context(schema, new StreamSink(new Utf8Output(out)));
+		context.fragment = true;
+		return bind(schema, context);
+	}
+
+	/**
+	 * Creates a new instance of the supplied interface that writes to a sink
+	 */
+	static <T> T bind(Schema<T> schema, Sink sink) {
+		return bind(schema, new Context(schema, sink));
+	}
+
+	private static <T> T bind(Schema<T> schema, Context context) {
+		Generated generated = schema.generated();
+		if (generated != null) {
+			return schema.definition().cast(generated.bind(new ContextWriter(context)));
+		}
+		return schema.definition().cast(proxy(schema.node(schema.definition()),
+				new StreamBinder(context, null)));
+	}
+	
+	/**
+	 * Writes the calls of a generated writer to the document context.
+	 * Checked exceptions are wrapped as a proxy would wrap them
+	 */
+	static final class ContextWriter implements Generated.Writer {
+		final Context context;
+		
+		ContextWriter(Context context) {
+			this.context = context;
+		}
+		
+		public Object element(String name) {
+			return context.create(name);
+		}
+		
+		public void attribute(Object element, String name, String value) {
+			context.attribute((Element) element, name, value);
+		}
+		
+		public void text(Object element, String text) {
+			try {
+				context.text((Element) element, text);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+		
+		public void child(Object parent, Object child) {
+			try {
+				if (parent == null) {
+					context.document((Element) child);
+				} else {
+					context.child((Element) parent, (Element) child);
+				}
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the context of a node created by a proxy or a generated writer
+	 */
+	static Context context(Object node) {
+		if (node instanceof Generated.Node) {
+			Generated.Writer writer = ((Generated.Node) node).writer;
+			return writer instanceof ContextWriter? ((ContextWriter) writer).context : null;
+		}
+		if (Proxy.isProxyClass(node.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(node);
+			return handler instanceof StreamBinder? ((StreamBinder) handler).context : null;
+		}
+		return null;
+	}
+
+	/**
+	 * An element that has been created through the proxy,
+	 * or a fragment that has already been encoded
+	 */
+	static final class Element {
+		final String name;
+		final List<String> attributes = new ArrayList<String>(4);
+		List<Object> content = new ArrayList<Object>(2);
+		Element parent;
+		boolean streamed, started, closed;
+		byte[] encoded;
+
+		Element(String name) {
+			this.name = name;
+		}
+
+		Element(String name, byte[] encoded) {
+			this.name = name;
+			this.encoded = encoded;
+		}
+
+		void attribute(String name, String value) {
+			int i = 0, n = attributes.size();
+			while (i < n && attributes.get(i).compareTo(name) < 0) i += 2;
+			if (i < n && attributes.get(i).equals(name)) {
+				attributes.set(i + 1, value);
+			} else {
+				attributes.add(i, value);
+				attributes.add(i, name);
+			}
+		}
+	}
+
+	/**
+	 * The state of the document being written:
+	 * the document element and the stack of elements that have been written
+	 * but not yet closed
+	 */
+	static final class Context {
+		final Schema<?> schema;
+		final Sink sink;
+		final List<Element> open = new ArrayList<Element>();
+		Element root;
+		boolean started, ended, fragment;
+		/** The Serialize flight recorder event, which lasts until the document is complete */
+		private Object event;
+
+		Context(Schema<?> schema, Sink sink) {
+			this.schema = schema;
+			this.sink = sink;
+			if (sink instanceof StreamSink) event = FlightEvents.SERIALIZE.begin();
+		}
+
+		Element element(Object node) {
+			if (context(node) != this) {
+				throw new IllegalArgumentException("Node belongs to a different document");
+			}
+			if (node instanceof Generated.Node) {
+				return (Element) ((Generated.Node) node).element;
+			}
+			return ((StreamBinder) Proxy.getInvocationHandler(node)).element;
+		}
+
+		Element create(String name) {
+			checkNotEnded();
+			Element e = new Element(name);
+			if (root == null) {
+				root = e;
+				e.streamed = true;
+				open.add(e);
+			}
+			return e;
+		}
+
+		void attribute(Element e, String name, String value) {
+			if (e.started || e.closed || e.encoded != null) {
+				throw new IllegalStateException("Attribute " + name + " must be set before content is added to " + e.name);
+			}
+			e.attribute(name, value);
+		}
+
+		void text(Element e, String text) throws Exception {
+			checkOpen(e);
+			if (e.streamed) {
+				commit(e);
+				sink.text(text);
+			} else {
+				e.content.add(text);
+			}
+		}
+
+		void child(Element parent, Element child) throws Exception {
+			checkOpen(parent);
+			attach(parent, child);
+			if (parent.streamed) {
+				commit(parent);
+				child.streamed = true;
+				open.add(child);
+			} else {
+				parent.content.add(child);
+			}
+		}
+
+		void document(Element e) throws Exception {
+			checkNotEnded();
+			if (e.encoded != null) {
+				throw new IllegalArgumentException("Fragment " + e.name + " cannot be the document element");
+			}
+			if (e != root) {
+				if (root.started) {
+					throw new IllegalStateException("Document element " + root.name + " has already been written");
+				}
+				demote(root);
+				attach(null, e);
+				root = e;
+				e.streamed = true;
+				open.add(e);
+			}
+			while (!open.isEmpty()) {
+				close(open.get(open.size() - 1));
+			}
+			ended = true;
+			sink.end(true);
+			if (event != null && !fragment) {
+				Utf8Output out = ((StreamSink) sink).out;
+				FlightEvents.SERIALIZE.commit(event, schema.definition().getName(), out.elements, out.size());
+			}
+			event = null;
+		}
+
+		/**
+		 * Records that a detached element has been added to a parent.
+		 * The document element can still be added to another element
+		 * as long as nothing has been written, in which case the top-most
+		 * ancestor of the new parent becomes the document element instead
+		 */
+		private void attach(Element parent, Element child) {
+			if (child.streamed && child == root && !child.started) {
+				demote(child);
+				Element top = parent;
+				while (top.parent != null) top = top.parent;
+				root = top;
+				top.streamed = true;
+				open.add(top);
+			} else if (child.parent != null || child.streamed || child.closed) {
+				throw new IllegalStateException("Element " + child.name + " has already been added");
+			}
+			child.parent = parent;
+		}
+
+		private void demote(Element e) {
+			open.remove(e);
+			e.streamed = false;
+		}
+
+		/**
+		 * Closes the written descendants of an open element
+		 * and writes its start tag and any buffered content
+		 */
+		private void commit(Element e) throws Exception {
+			while (open.get(open.size() - 1) != e) {
+				close(open.get(open.size() - 1));
+			}
+			if (!e.started) {
+				start(e, false);
+				writeContent(e);
+			}
+		}
+
+		private void close(Element e) throws Exception {
+			if (e.started) {
+				sink.end(false);
+				e.closed = true;
+			} else {
+				write(e);
+			}
+			open.remove(open.size() - 1);
+		}
+
+		private void write(Element e) throws Exception {
+			if (e.encoded != null) {
+				sink.fragment(e.encoded);
+				e.closed = true;
+				return;
+			}
+			boolean empty = e.content.isEmpty();
+			start(e, empty);
+			writeContent(e);
+			if (!empty) sink.end(false);
+			e.closed = true;
+		}
+
+		private void start(Element e, boolean empty) throws Exception {
+			if (!started) {
+				started = true;
+				if (!fragment) sink.start();
+			}
+			if (e == root && !fragment && schema.namespace().length() > 0) {
+				e.attributes.add(0, schema.namespace());
+				e.attributes.add(0, "xmlns");
+			}
+			sink.start(e, empty);
+			e.started = true;
+		}
+
+		private void writeContent(Element e) throws Exception {
+			for (Object item : e.content) {
+				if (item instanceof Element) {
+					write((Element) item);
+				} else {
+					sink.text((String) item);
+				}
+			}
+			e.content = null;
+		}
+
+		private void checkOpen(Element e) {
+			checkNotEnded();
+			if (e.encoded != null) {
+				throw new IllegalStateException("Fragment " + e.name + " cannot be added to");
+			}
+			if (e.closed) {
+				throw new IllegalStateException("Element " + e.name + " has already been written");
+			}
+		}
+
+		private void checkNotEnded() {
+			if (ended) {
+				throw new IllegalStateException("The document has been completed");
+			}
+		}
+	}
+
+	/**
+	 * A destination for the document's events
+	 */
+	interface Sink {
+		void start() throws Exception;
+		void start(Element e, boolean empty) throws Exception;
+		void text(String text) throws Exception;
+		void fragment(byte[] encoded) throws Exception;
+		void end(boolean document) throws Exception;
+	}
+
+	static final class StreamSink implements Sink {
+		final Utf8Output out;
+		private final List<String> names = new ArrayList<String>();
+
+		StreamSink(Utf8Output out) {
+			this.out = out;
+		}
+
+		public void start() throws Exception {
+			out.markup("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+		}
+
+		public void start(Element e, boolean empty) throws Exception {
+			out.elements++;
+			out.markup('<');
+			out.markup(e.name);
+			for (int i = 0, n = e.attributes.size(); i < n; i += 2) {
+				out.markup(' ');
+				out.markup(e.attributes.get(i));
+				out.markup("=\"");
+				out.attribute(e.attributes.get(i + 1));
+				out.markup('"');
+			}
+			if (empty) {
+				out.markup("/>");
+			} else {
+				out.markup('>');
+				names.add(e.name);
+			}
+		}
+
+		public void text(String text) throws Exception {
+			out.text(text);
+		}
+
+		public void fragment(byte[] encoded) throws Exception {
+			out.raw(encoded);
+		}
+
+		public void end(boolean document) throws Exception {
+			if (document) {
+				out.close();
+			} else {
+				out.markup("</");
+				out.markup(names.remove(names.size() - 1));
+				out.markup('>');
+			}
+		}
+	}
+
+	static final class WriterSink implements Sink {
+		private final XMLStreamWriter writer;
+
+		WriterSink(XMLStreamWriter writer) {
+			this.writer = writer;
+		}
+
+		public void start() throws XMLStreamException {
+			writer.writeStartDocument();
+		}
+
+		public void start(Element e, boolean empty) throws XMLStreamException {
+			if (empty) {
+				writer.writeEmptyElement(e.name);
+			} else {
+				writer.writeStartElement(e.name);
+			}
+			for (int i = 0, n = e.attributes.size(); i < n; i += 2) {
+				writer.writeAttribute(e.attributes.get(i), e.attributes.get(i + 1));
+			}
+		}
+
+		public void text(String text) throws XMLStreamException {
+			writer.writeCharacters(text);
+		}
+
+		public void fragment(byte[] encoded) {
+			throw new UnsupportedOperationException("Encoded fragments can only be written to an OutputStream");
+		}
+
+		public void end(boolean document) throws XMLStreamException {
+			if (document) {
+				writer.writeEndDocument();
+				writer.flush();
+			} else {
+				writer.writeEndElement();
+			}
+		}
+	}
+}
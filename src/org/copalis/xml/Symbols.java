@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The table of element and attribute names used by a schema
+ * <p>
+ * Every name is interned and given a small integer id when the schema is compiled.
+ * Parser front ends resolve names to ids, and the schema's factories and attributes
+ * are looked up by id in arrays.
+ * Names from parsers that intern their symbols, as the JDK's parsers do,
+ * are matched by identity; other names are matched by their cached hash code
+ * and <code>equals</code>, and names held in a character buffer or as ASCII bytes
+ * can be resolved without creating a String.
+ * </p>
+ * <p>
+ * A Symbols table is immutable once its schema has been compiled.
+ * </p>
+ *
+ * @see Schema#symbols()
+ * @author gilesjb
+ */
+public final class Symbols {
+
+	private final List<String> names = new ArrayList<String>();
+	private String[] keys = new String[16];
+	private int[] hashes = new int[16];
+	private int[] ids = new int[16];
+
+	Symbols() {}
+
+	/**
+	 * Adds a name to the table if it is not already present
+	 *
+	 * @return The name's id
+	 */
+	int add(String name) {
+		int id = id(name);
+		if (id >= 0) return id;
+		id = names.size();
+		name = name.intern();
+		names.add(name);
+		if (names.size() * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+		put(name, id);
+		return id;
+	}
+
+	private void put(String name, int id) {
+		int mask = keys.length - 1;
+		int i = name.hashCode() & mask;
+		while (keys[i] != null) i = (i + 1) & mask;
+		keys[i] = name;
+		hashes[i] = name.hashCode();
+		ids[i] = id;
+	}
+
+	private void rehash(int size) {
+		keys = new String[size];
+		hashes = new int[size];
+		ids = new int[size];
+		for (int id = 0; id < names.size(); id++) {
+			put(names.get(id), id);
+		}
+	}
+
+	/**
+	 * @return The number of names in the table.
+	 * Ids are numbered from 0 to size() - 1
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * @param id A symbol id
+	 * @return The interned name with the id
+	 */
+	public String name(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Resolves a name
+	 *
+	 * @param name An element or attribute name
+	 * @return The name's id, or -1 if it is not used by the schema
+	 */
+	public int id(String name) {
+		int h = name.hashCode();
+		int mask = keys.length - 1;
+		for (int i = h & mask; keys[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == name || (hashes[i] == h && keys[i].equals(name))) return ids[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Resolves a name held in a character array, without creating a String
+	 *
+	 * @param ch The characters
+	 * @param start The index of the first character of the name
+	 * @param length The length of the name
+	 * @return The name's id, or -1 if it is not used by the schema
+	 */
+	public int id(char[] ch, int start, int length) {
+		int h = 0;
+		for (int i = start; i < start + length; i++) {
+			h = 31 * h + ch[i];
+		}
+		int mask = keys.length - 1;
+		for (int i = h & mask; keys[i] != null; i = (i + 1) & mask) {
+			if (hashes[i] == h && matches(keys[i], ch, start, length)) return ids[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Resolves a name held as UTF-8 bytes in an array, without creating a String
+	 * if the name is ASCII
+	 *
+	 * @param bytes The array
+	 * @param start The index of the first byte of the name
+	 * @param length The number of bytes in the name
+	 * @return The name's id, or -1 if it is not used by the schema
+	 */
+	public int id(byte[] bytes, int start, int length) {
+		int h = 0;
+		for (int i = start; i < start + length; i++) {
+			byte b = bytes[i];
+			if (b < 0) return id(new String(bytes, start, length, StandardCharsets.UTF_8));
+			h = 31 * h + b;
+		}
+		int mask = keys.length - 1;
+		for (int i = h & mask; keys[i] != null; i = (i + 1) & mask) {
+			if (hashes[i] == h && matches(keys[i], bytes, start, length)) return ids[i];
+		}
+		return -1;
+	}
+
+	private static boolean matches(String key, byte[] bytes, int start, int length) {
+		if (key.length() != length) return false;
+		for (int i = 0; i < length; i++) {
+			if (key.charAt(i) != bytes[start + i]) return false;
+		}
+		return true;
+	}
+
+	private static boolean matches(String key, char[] ch, int start, int length) {
+		if (key.length() != length) return false;
+		for (int i = 0; i < length; i++) {
+			if (key.charAt(i) != ch[start + i]) return false;
+		}
+		return true;
+	}
+
+	public String toString() {
+		return names.toString();
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.io.CharConversionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffered UTF-8 output of XML markup and escaped character data.
+ * Characters are escaped the same way as the JAXP Transformer escapes them.
+ * <p>
+ * Buffers are taken from a shared pool and returned to it by {@link #close()},
+ * so writing many documents does not allocate a new buffer for each one.
+ * </p>
+ *
+ * @author gilesjb
+ */
+final class Utf8Output {
+
+	private static final int BUFFER_SIZE = 32 * 1024;
+	private static final int POOL_SIZE = 16;
+
+	private static final int SHORT = 16;
+	private static final int TEXT = 1, ATTRIBUTE = 2;
+	private static final byte[] ESCAPES = new byte[0x80];
+
+	static {
+		for (int c = 0; c < 0x20; c++) {
+			ESCAPES[c] = TEXT | ATTRIBUTE;
+		}
+		ESCAPES['<'] = ESCAPES['>'] = ESCAPES['&'] = ESCAPES[0x7F] = TEXT | ATTRIBUTE;
+		ESCAPES['"'] = ATTRIBUTE;
+	}
+
+	private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final AtomicInteger pooled = new AtomicInteger();
+
+	private final OutputStream out;
+	private final WritableByteChannel channel;
+	private ByteBuffer buffer;
+	private byte[] buf;
+	private final char[] chars = new char[1024];
+	private int pos;
+	/** The number of bytes that have been drained */
+	private long drained;
+	/** The number of elements written, counted by the caller for flight recorder events */
+	long elements;
+
+	Utf8Output(OutputStream out) {
+		this(out, null);
+	}
+
+	Utf8Output(WritableByteChannel channel) {
+		this(null, channel);
+	}
+
+	private Utf8Output(OutputStream out, WritableByteChannel channel) {
+		this.out = out;
+		this.channel = channel;
+		buffer = pool.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		} else {
+			pooled.decrementAndGet();
+		}
+		buf = buffer.array();
+	}
+
+	/**
+	 * Writes markup, which is not escaped.
+	 * Supplementary characters are encoded as four bytes, since references are not
+	 * expanded in CDATA sections, comments or processing instructions
+	 *
+	 * @throws CharConversionException If the string contains an unpaired surrogate
+	 */
+	void markup(String str) throws IOException {
+		for (int i = 0, n = str.length(); i < n; ) {
+			i = copy(str, i, n, 0);
+			if (i == n) break;
+			char c = str.charAt(i);
+			if (Character.isSurrogate(c)) {
+				write(codePoint(str, i, n));
+				i += 2;
+			} else {
+				write(c);
+				i++;
+			}
+		}
+	}
+
+	void markup(char c) throws IOException {
+		write(c);
+	}
+
+	/**
+	 * Writes bytes that have already been encoded
+	 */
+	void raw(byte[] bytes) throws IOException {
+		for (int i = 0; i < bytes.length; ) {
+			if (pos == buf.length) drain();
+			int len = Math.min(bytes.length - i, buf.length - pos);
+			System.arraycopy(bytes, i, buf, pos, len);
+			pos += len;
+			i += len;
+		}
+	}
+
+	/**
+	 * Writes character data, escaped for use as element content
+	 */
+	void text(String str) throws IOException {
+		for (int i = 0, n = str.length(); i < n; ) {
+			i = copy(str, i, n, TEXT);
+			if (i == n) break;
+			char c = str.charAt(i++);
+			switch (c) {
+			case '<': markup("&lt;"); break;
+			case '>': markup("&gt;"); break;
+			case '&': markup("&amp;"); break;
+			case '\r': markup("&#13;"); break;
+			case '\n': case '\t': write(c); break;
+			default:
+				if (c < 0x20 || (c >= 0x7F && c <= 0x9F)) {
+					reference(c);
+				} else if (Character.isSurrogate(c)) {
+					reference(codePoint(str, i - 1, n));
+					i++;
+				} else {
+					write(c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes character data, escaped for use as a quoted attribute value
+	 */
+	void attribute(String str) throws IOException {
+		for (int i = 0, n = str.length(); i < n; ) {
+			i = copy(str, i, n, ATTRIBUTE);
+			if (i == n) break;
+			char c = str.charAt(i++);
+			switch (c) {
+			case '<': markup("&lt;"); break;
+			case '>': markup("&gt;"); break;
+			case '&': markup("&amp;"); break;
+			case '"': markup("&quot;"); break;
+			case '\r': markup("&#13;"); break;
+			case '\n': markup("&#10;"); break;
+			case '\t': markup("&#9;"); break;
+			default:
+				if (c < 0x20) {
+					reference(c);
+				} else if (Character.isSurrogate(c)) {
+					reference(codePoint(str, i - 1, n));
+					i++;
+				} else {
+					write(c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies ASCII characters that need no escaping straight into the buffer
+	 *
+	 * @param mask The escape classes that stop the copy
+	 * @return The index of the first character that was not copied
+	 */
+	private int copy(String str, int i, int n, int mask) throws IOException {
+		if (n - i <= SHORT && pos + SHORT <= buf.length) {
+			for (; i < n; i++) {
+				char c = str.charAt(i);
+				if (c >= 0x80 || (ESCAPES[c] & mask) != 0) {
+					return i;
+				}
+				buf[pos++] = (byte) c;
+			}
+			return i;
+		}
+		while (i < n) {
+			if (pos == buf.length) drain();
+			int len = Math.min(Math.min(n - i, buf.length - pos), chars.length);
+			str.getChars(i, i + len, chars, 0);
+			for (int j = 0; j < len; j++) {
+				char c = chars[j];
+				if (c >= 0x80 || (ESCAPES[c] & mask) != 0) {
+					return i + j;
+				}
+				buf[pos++] = (byte) c;
+			}
+			i += len;
+		}
+		return i;
+	}
+
+	/**
+	 * @return The code point of the surrogate pair that starts at index i
+	 * @throws CharConversionException If the character at i does not start a pair
+	 */
+	private static int codePoint(String str, int i, int n) throws CharConversionException {
+		char c = str.charAt(i);
+		if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(str.charAt(i + 1))) {
+			return Character.toCodePoint(c, str.charAt(i + 1));
+		}
+		throw new CharConversionException("Unpaired surrogate \\u" + Integer.toHexString(c).toUpperCase() + " at index " + i);
+	}
+
+	private void reference(int codePoint) throws IOException {
+		markup("&#");
+		markup(Integer.toString(codePoint));
+		write(';');
+	}
+
+	private void write(char c) throws IOException {
+		if (pos + 3 > buf.length) drain();
+		if (c < 0x80) {
+			buf[pos++] = (byte) c;
+		} else if (c < 0x800) {
+			buf[pos++] = (byte) (0xC0 | (c >> 6));
+			buf[pos++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isSurrogate(c)) {
+			throw new CharConversionException("Unpaired surrogate \\u" + Integer.toHexString(c).toUpperCase());
+		} else {
+			buf[pos++] = (byte) (0xE0 | (c >> 12));
+			buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			buf[pos++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	/**
+	 * Writes a supplementary character as four bytes
+	 */
+	private void write(int codePoint) throws IOException {
+		if (pos + 4 > buf.length) drain();
+		buf[pos++] = (byte) (0xF0 | (codePoint >> 18));
+		buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+		buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+		buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+	}
+
+	private void drain() throws IOException {
+		if (buf == null) {
+			throw new IOException("Output has been closed");
+		}
+		if (channel != null) {
+			buffer.clear().limit(pos);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} else {
+			out.write(buf, 0, pos);
+		}
+		drained += pos;
+		pos = 0;
+	}
+
+	/**
+	 * @return The number of bytes that have been written, including those still buffered
+	 */
+	long size() {
+		return drained + pos;
+	}
+
+	/**
+	 * Writes any buffered bytes and flushes the underlying stream
+	 */
+	void flush() throws IOException {
+		drain();
+		if (out != null) out.flush();
+	}
+
+	/**
+	 * Flushes the output and returns the buffer to the pool.
+	 * The underlying stream or channel is not closed
+	 */
+	void close() throws IOException {
+		if (buf == null) return;
+		try {
+			flush();
+		} finally {
+			buffer.clear();
+			if (pooled.incrementAndGet() <= POOL_SIZE) {
+				pool.offer(buffer);
+			} else {
+				pooled.decrementAndGet();
+			}
+			buffer = null;
+			buf = null;
+		}
+	}
+}
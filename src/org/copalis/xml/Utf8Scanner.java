@@ -0,0 +1,885 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * A namespace-aware XML scanner for UTF-8 documents in a ByteBuffer or a file,
+ * which converts the document into calls to a schema implementation
+ * with the same semantics as {@link SAXHandler}.
+ * <p>
+ * The scanner works directly on a byte array. A heap buffer's backing array is scanned in place;
+ * a file is memory-mapped, and a mapped or direct buffer is copied in bulk into a reusable window
+ * a block at a time, keeping any markup or text that is not yet complete for the next block.
+ * The window grows only to hold the largest tag, text or comment in the document.
+ * </p>
+ * <p>
+ * Element and attribute names are matched against the schema's {@link Symbols}
+ * as bytes, and attribute values and text are decoded into a reusable character buffer,
+ * so Strings are only created for values passed to schema methods that take them,
+ * and for namespace URIs.
+ * </p>
+ * <p>
+ * The scanner accepts the subset of XML used by data feeds: elements, attributes,
+ * namespace declarations, character data, CDATA sections, character references and the
+ * predefined entities, comments and processing instructions, in UTF-8 or ASCII.
+ * Documents with a DOCTYPE declaration, other entity references or other encodings
+ * are rejected, as are documents that are not well-formed, with a SAXParseException
+ * giving the line and column. Name characters are not checked against the XML grammar.
+ * </p>
+ *
+ * @author gilesjb
+ */
+public class Utf8Scanner {
+
+	private static final String XMLNS = "xmlns";
+
+	/** The initial size of the window that files and direct buffers are read through */
+	private static final int WINDOW = 64 * 1024;
+
+	private static final ByteBuffer[] NONE = new ByteBuffer[0];
+
+	/** The bytes that end an element or attribute name: whitespace, '=', '/' and '>' */
+	private static final boolean[] ENDS_NAME = new boolean[256];
+
+	static {
+		for (char c : " \t\r\n=/>".toCharArray()) ENDS_NAME[c] = true;
+	}
+
+	private final Schema<?> schema;
+	private final Symbols symbols;
+	private final Dispatcher dispatcher;
+
+	private byte[] in;
+	private int start, pos, limit;
+	/** The input that has not yet been copied into the window; none for a heap buffer */
+	private ByteBuffer[] sources;
+	private int source;
+	private byte[] window;
+	/** The line and column at start, and the number of bytes dropped from the window before it */
+	private int line, column;
+	private long dropped;
+	private char[] chars = new char[256];
+	/** The number of characters in the buffer after the last call to decode(int, int, int) or reference */
+	private int decoded;
+
+	/** The open elements: the position in names and the length of each qualified name,
+	 * the number of namespace bindings it declared, and whether it is in the schema's namespace */
+	private int[] openName = new int[16], openLength = new int[16], openBindings = new int[16];
+	private boolean[] openDispatched = new boolean[16];
+	private int depth;
+	/** The qualified names of the open elements, which may no longer be in the window */
+	private byte[] names = new byte[256];
+
+	private String[] prefixes = new String[8], uris = new String[8];
+	private int bindings;
+
+	/** The attributes of the current start tag: positions and lengths of names and values */
+	private int[] attrName = new int[8], attrNameLength = new int[8], attrValue = new int[8], attrValueLength = new int[8];
+	private int attrs;
+
+	public <T> Utf8Scanner(Class<T> definition, T handler) {
+		this(Schema.of(definition), handler);
+	}
+
+	public <T> Utf8Scanner(Schema<T> schema, T handler) {
+		this.schema = schema;
+		this.symbols = schema.symbols();
+		this.dispatcher = new Dispatcher(schema, handler);
+	}
+
+	/**
+	 * Sets how whitespace in text is treated. The default is {@link Whitespace#TRIM}
+	 *
+	 * @param mode The whitespace mode
+	 */
+	public void setWhitespace(Whitespace mode) {
+		dispatcher.whitespace(mode);
+	}
+
+	/**
+	 * Installs a listener for instrumentation events. Install it before the document is read
+	 *
+	 * @param listener The listener, or null for none
+	 */
+	public void setListener(SchemaListener listener) {
+		dispatcher.listener(listener);
+	}
+
+	/**
+	 * Streams records, as {@link SAXHandler#setRecords(Class, Consumer)} does
+	 *
+	 * @param type The node interface of the records
+	 * @param consumer The consumer of the records, or null to add them to their parents
+	 */
+	public <R> void setRecords(Class<R> type, Consumer<? super R> consumer) {
+		dispatcher.records(type, consumer);
+	}
+
+	/**
+	 * Maps a file into memory and reads it
+	 *
+	 * @param file A UTF-8 document
+	 * @throws IOException
+	 * @throws SAXException
+	 */
+	public void read(File file) throws IOException, SAXException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ByteBuffer[] regions;
+		try {
+			long size = channel.size();
+			regions = new ByteBuffer[(int) ((size + Integer.MAX_VALUE - 1) / Integer.MAX_VALUE)];
+			for (int i = 0; i < regions.length; i++) {
+				long from = (long) i * Integer.MAX_VALUE;
+				regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(size - from, Integer.MAX_VALUE));
+			}
+		} finally {
+			channel.close();
+		}
+		scan(window(), 0, 0, regions);
+	}
+
+	/**
+	 * Reads a document from the remaining bytes of a buffer.
+	 * The buffer's position is not changed
+	 *
+	 * @param buffer A UTF-8 document
+	 * @throws SAXException
+	 */
+	public void read(ByteBuffer buffer) throws SAXException {
+		if (buffer.hasArray()) {
+			scan(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.arrayOffset() + buffer.limit(), NONE);
+		} else {
+			scan(window(), 0, 0, new ByteBuffer[] {buffer.duplicate()});
+		}
+	}
+
+	private byte[] window() {
+		if (window == null) window = new byte[WINDOW];
+		return window;
+	}
+
+	/**
+	 * Scans a document
+	 *
+	 * @param bytes The bytes of the document, or the window it is read through
+	 * @param from The position of the document in the array
+	 * @param to The end of the bytes in the array
+	 * @param input The rest of the document
+	 */
+	private void scan(byte[] bytes, int from, int to, ByteBuffer[] input) throws SAXException {
+		in = bytes;
+		start = pos = from;
+		limit = to;
+		sources = input;
+		source = 0;
+		line = column = 1;
+		dropped = 0;
+		depth = bindings = 0;
+		dispatcher.startDocument();
+		try {
+			prolog();
+			content();
+			misc();
+			if (pos < limit) throw error("Content is not allowed after the document element");
+			dispatcher.endDocument(dropped + limit - start);
+		} finally {
+			in = null;
+			sources = null;
+		}
+	}
+
+	/**
+	 * @return true if there is input that has not yet been copied into the window
+	 */
+	private boolean more() {
+		while (source < sources.length && !sources[source].hasRemaining()) source++;
+		return source < sources.length;
+	}
+
+	/**
+	 * Moves the bytes from the current position to the front of the window
+	 * and copies more input after them, enlarging the window if they already fill it.
+	 * Positions before the current position are no longer valid afterwards
+	 *
+	 * @return false if there is no more input
+	 */
+	private boolean fill() {
+		if (!more()) return false;
+		for (int i = start; i < pos; i++) {
+			byte b = in[i];
+			if (b == '\n') {
+				line++;
+				column = 1;
+			} else if ((b & 0xC0) != 0x80) {
+				column++;
+			}
+		}
+		dropped += pos - start;
+		int kept = limit - pos;
+		if (pos > 0) {
+			System.arraycopy(in, pos, in, 0, kept);
+		} else if (kept == in.length) {
+			in = window = Arrays.copyOf(in, kept * 2);
+		}
+		start = pos = 0;
+		ByteBuffer next = sources[source];
+		int n = Math.min(in.length - kept, next.remaining());
+		next.get(in, kept, n);
+		limit = kept + n;
+		return true;
+	}
+
+	/**
+	 * Fills the window until it holds a number of bytes from the current position,
+	 * or the rest of the input
+	 */
+	private void require(int n) {
+		while (limit - pos < n && fill());
+	}
+
+	private void prolog() throws SAXException {
+		require(9);
+		if (limit - pos >= 3 && at(pos) == (byte) 0xEF && at(pos + 1) == (byte) 0xBB && at(pos + 2) == (byte) 0xBF) {
+			pos += 3;
+		} else if (limit - pos >= 2 && ((at(pos) == (byte) 0xFE && at(pos + 1) == (byte) 0xFF)
+				|| (at(pos) == (byte) 0xFF && at(pos + 1) == (byte) 0xFE))) {
+			throw error("UTF-16 documents are not supported");
+		}
+		if (isDeclaration()) {
+			declaration();
+		}
+		misc();
+		if (startsWith("<!DOCTYPE")) throw error("DTDs are not supported");
+		if (pos == limit || at(pos) != '<') throw error("The document element is missing");
+	}
+
+	/**
+	 * Skips whitespace, comments and processing instructions outside the document element
+	 */
+	private void misc() throws SAXException {
+		for (;;) {
+			skipWhitespace();
+			if (pos == limit && fill()) continue;
+			require(9);
+			if (startsWith("<!--")) {
+				comment();
+			} else if (startsWith("<?")) {
+				instruction();
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void declaration() throws SAXException {
+		int end = find("?>", pos);
+		String decl = new String(in, pos, end - pos, StandardCharsets.US_ASCII);
+		int i = decl.indexOf("encoding");
+		if (i > 0) {
+			int q = i + 8;
+			while (q < decl.length() && (decl.charAt(q) == '=' || decl.charAt(q) <= ' ')) q++;
+			if (q < decl.length()) {
+				char quote = decl.charAt(q);
+				int close = decl.indexOf(quote, q + 1);
+				String encoding = close > q? decl.substring(q + 1, close) : "";
+				if (!encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("US-ASCII")
+						&& !encoding.equalsIgnoreCase("ASCII")) {
+					throw error("Only UTF-8 documents are supported, not " + encoding);
+				}
+			}
+		}
+		pos = end + 2;
+	}
+
+	private void content() throws SAXException {
+		do {
+			require(9);
+			byte b = at(pos);
+			if (b != '<') {
+				text();
+			} else if (pos + 1 < limit && at(pos + 1) == '/') {
+				endTag();
+			} else if (startsWith("<!--")) {
+				comment();
+			} else if (startsWith("<![CDATA[")) {
+				cdata();
+			} else if (startsWith("<!DOCTYPE")) {
+				throw error("DTDs are not supported");
+			} else if (startsWith("<?")) {
+				if (isDeclaration()) {
+					throw error("The XML declaration must be at the start of the document");
+				}
+				instruction();
+			} else if (pos + 1 < limit && at(pos + 1) == '!') {
+				throw error("Unsupported markup declaration");
+			} else {
+				startTag();
+			}
+		} while (depth > 0 && (pos < limit || fill()));
+		if (depth > 0) throw error("The document ended before element " + openName(depth - 1) + " was closed");
+	}
+
+	/**
+	 * @return true if the XML declaration starts at the current position
+	 */
+	private boolean isDeclaration() {
+		return startsWith("<?xml") && limit - pos > 5 && isWhitespace(at(pos + 5));
+	}
+
+	private void startTag() throws SAXException {
+		readTag();
+		int tag = pos++;
+		int nameStart = pos;
+		pos = nameEnd(pos);
+		int nameLength = pos - nameStart;
+		if (nameLength == 0) throw error("An element name is missing");
+
+		attrs = 0;
+		boolean empty;
+		for (;;) {
+			skipWhitespace();
+			if (pos >= limit) {
+				pos = tag;
+				throw error("The start tag is not closed");
+			}
+			byte b = at(pos);
+			if (b == '>') {
+				pos++;
+				empty = false;
+				break;
+			}
+			if (b == '/') {
+				if (pos + 1 >= limit || at(pos + 1) != '>') throw error("Expected '>' after '/'");
+				pos += 2;
+				empty = true;
+				break;
+			}
+			attribute();
+		}
+
+		int declared = 0;
+		for (int i = 0; i < attrs; i++) {
+			int n = attrName[i], len = attrNameLength[i];
+			if (matches(n, len, XMLNS)) {
+				bind("", i);
+				declared++;
+			} else if (len > 6 && matches(n, 6, "xmlns:")) {
+				bind(name(n + 6, len - 6), i);
+				declared++;
+			}
+		}
+
+		int colon = indexOf(':', nameStart, nameLength);
+		String uri = colon < 0? resolve(-1, 0) : resolve(nameStart, colon - nameStart);
+		boolean dispatched = schema.isNamespace(uri);
+		push(nameStart, nameLength, declared, dispatched);
+
+		if (dispatched) {
+			int local = colon < 0? nameStart : colon + 1;
+			int localLength = nameStart + nameLength - local;
+			try {
+				int id = symbols.id(in, local, localLength);
+				dispatcher.start(id, id >= 0? symbols.name(id) : name(local, localLength), attrs - declared);
+				for (int i = 0; i < attrs; i++) {
+					int n = attrName[i], len = attrNameLength[i];
+					if (matches(n, len, XMLNS) || (len > 6 && matches(n, 6, "xmlns:"))) continue;
+					int c = indexOf(':', n, len);
+					if (c >= 0) {
+						len -= c + 1 - n;
+						n = c + 1;
+					}
+					int attr = symbols.id(in, n, len);
+					int chars = decode(attrValue[i], attrValue[i] + attrValueLength[i], true);
+					dispatcher.attribute(attr, attr >= 0? symbols.name(attr) : name(n, len), this.chars, 0, chars);
+				}
+			} catch (SAXException e) {
+				throw e;
+			} catch (Exception e) {
+				throw error(e);
+			}
+		}
+		if (empty) end();
+	}
+
+	private void attribute() throws SAXException {
+		int nameStart = pos;
+		pos = nameEnd(pos);
+		int nameLength = pos - nameStart;
+		skipWhitespace();
+		if (nameLength == 0 || pos >= limit || at(pos) != '=') throw error("Expected an attribute");
+		pos++;
+		skipWhitespace();
+		byte quote = pos < limit? at(pos) : 0;
+		if (quote != '"' && quote != '\'') throw error("Expected a quoted attribute value");
+		int valueStart = ++pos;
+		pos = scan(valueStart, quote);
+		int lt = indexOf('<', valueStart, pos - valueStart);
+		if (lt >= 0) {
+			pos = lt;
+			throw error("'<' is not allowed in attribute values");
+		}
+		if (pos >= limit) throw error("The attribute value is not closed");
+		for (int i = 0; i < attrs; i++) {
+			if (attrNameLength[i] == nameLength && equal(attrName[i], nameStart, nameLength)) {
+				pos = nameStart;
+				throw error("Attribute " + name(nameStart, nameLength) + " appears more than once");
+			}
+		}
+		if (attrs == attrName.length) {
+			int size = attrs * 2;
+			attrName = Arrays.copyOf(attrName, size);
+			attrNameLength = Arrays.copyOf(attrNameLength, size);
+			attrValue = Arrays.copyOf(attrValue, size);
+			attrValueLength = Arrays.copyOf(attrValueLength, size);
+		}
+		attrName[attrs] = nameStart;
+		attrNameLength[attrs] = nameLength;
+		attrValue[attrs] = valueStart;
+		attrValueLength[attrs++] = pos++ - valueStart;
+		if (pos < limit && !isWhitespace(at(pos)) && at(pos) != '>' && at(pos) != '/') {
+			throw error("Expected whitespace after an attribute");
+		}
+	}
+
+	private void endTag() throws SAXException {
+		until((byte) '>');
+		pos += 2;
+		int nameStart = pos;
+		pos = nameEnd(pos);
+		int nameLength = pos - nameStart;
+		skipWhitespace();
+		if (pos >= limit || at(pos) != '>') throw error("The end tag is not closed");
+		if (depth == 0) throw error("Unexpected end tag");
+		int open = openName[depth - 1], length = openLength[depth - 1];
+		if (nameLength != length || !isOpen(open, nameStart, length)) {
+			pos = nameStart - 2;
+			throw error("The end tag " + name(nameStart, nameLength) + " does not match the start tag " + openName(depth - 1));
+		}
+		pos++;
+		end();
+	}
+
+	private void end() throws SAXException {
+		depth--;
+		bindings -= openBindings[depth];
+		if (openDispatched[depth]) {
+			try {
+				dispatcher.end();
+			} catch (Exception e) {
+				throw error(e);
+			}
+		}
+	}
+
+	private void text() throws SAXException {
+		int end = until((byte) '<');
+		int from = pos;
+		pos = end;
+		int n = decode(from, pos, false);
+		if (depth == 0) {
+			for (int i = 0; i < n; i++) {
+				if (!isWhitespace((byte) chars[i])) {
+					pos = from;
+					throw error("Text is not allowed outside the document element");
+				}
+			}
+		}
+		dispatcher.characters(chars, 0, n);
+	}
+
+	private void cdata() throws SAXException {
+		int end = find("]]>", pos + 9);
+		int from = pos + 9;
+		int n = 0;
+		for (int i = from; i < end; ) {
+			if (at(i) == '\r') {
+				reserve(n + 1);
+				chars[n++] = '\n';
+				i += i + 1 < end && at(i + 1) == '\n'? 2 : 1;
+			} else {
+				i = decode(i, end, n);
+				n = decoded;
+			}
+		}
+		dispatcher.characters(chars, 0, n);
+		pos = end + 3;
+	}
+
+	private void comment() throws SAXException {
+		pos = find("-->", pos + 4) + 3;
+	}
+
+	private void instruction() throws SAXException {
+		pos = find("?>", pos + 2) + 2;
+	}
+
+	/**
+	 * Decodes an attribute value, replacing references and normalizing whitespace
+	 */
+	private String value(int i) throws SAXException {
+		int n = decode(attrValue[i], attrValue[i] + attrValueLength[i], true);
+		return new String(chars, 0, n);
+	}
+
+	/**
+	 * Decodes character data into the character buffer, replacing references
+	 * and normalizing line ends
+	 *
+	 * @param attribute true to replace whitespace characters with spaces, as in attribute values
+	 * @return The number of characters
+	 */
+	private int decode(int from, int to, boolean attribute) throws SAXException {
+		int n = 0;
+		for (int i = from; i < to; ) {
+			byte b = at(i);
+			if (b == '&') {
+				i = reference(i, to, n);
+				n = decoded;
+			} else if (b == '\r') {
+				reserve(n + 1);
+				chars[n++] = attribute? ' ' : '\n';
+				i += i + 1 < to && at(i + 1) == '\n'? 2 : 1;
+			} else if (attribute && (b == '\n' || b == '\t')) {
+				reserve(n + 1);
+				chars[n++] = ' ';
+				i++;
+			} else {
+				i = decode(i, to, n);
+				n = decoded;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Decodes one UTF-8 character, or a run of ASCII characters, into the buffer
+	 *
+	 * @param n The number of characters already in the buffer
+	 * @return The position of the next byte
+	 */
+	private int decode(int i, int to, int n) throws SAXException {
+		reserve(n + 2);
+		byte[] in = this.in;
+		char[] chars = this.chars;
+		int b = in[i];
+		if (b >= 0) {
+			int end = Math.min(to, i + chars.length - n);
+			do {
+				chars[n++] = (char) b;
+				i++;
+			} while (i < end && (b = in[i]) >= ' ' && b != '&');
+			decoded = n;
+			return i;
+		}
+		int extra, c;
+		if ((b & 0xE0) == 0xC0) {
+			extra = 1;
+			c = b & 0x1F;
+		} else if ((b & 0xF0) == 0xE0) {
+			extra = 2;
+			c = b & 0x0F;
+		} else if ((b & 0xF8) == 0xF0) {
+			extra = 3;
+			c = b & 0x07;
+		} else {
+			pos = i;
+			throw error("Invalid UTF-8 byte");
+		}
+		if (i + extra >= to) {
+			pos = i;
+			throw error("Truncated UTF-8 character");
+		}
+		for (int k = 1; k <= extra; k++) {
+			int next = at(i + k);
+			if ((next & 0xC0) != 0x80) {
+				pos = i;
+				throw error("Invalid UTF-8 byte");
+			}
+			c = (c << 6) | (next & 0x3F);
+		}
+		if (c >= 0x10000) {
+			chars[n++] = Character.highSurrogate(c);
+			chars[n++] = Character.lowSurrogate(c);
+		} else {
+			chars[n++] = (char) c;
+		}
+		decoded = n;
+		return i + extra + 1;
+	}
+
+	/**
+	 * Replaces a character or entity reference
+	 *
+	 * @return The position after the reference
+	 */
+	private int reference(int i, int to, int n) throws SAXException {
+		int end = i + 1;
+		while (end < to && at(end) != ';') end++;
+		if (end >= to) {
+			pos = i;
+			throw error("The reference is not terminated with ';'");
+		}
+		String name = name(i + 1, end - i - 1);
+		int c;
+		if (name.equals("lt")) c = '<';
+		else if (name.equals("gt")) c = '>';
+		else if (name.equals("amp")) c = '&';
+		else if (name.equals("quot")) c = '"';
+		else if (name.equals("apos")) c = '\'';
+		else if (name.startsWith("#")) {
+			try {
+				c = name.startsWith("#x")? Integer.parseInt(name.substring(2), 16) : Integer.parseInt(name.substring(1));
+			} catch (NumberFormatException e) {
+				pos = i;
+				throw error("Invalid character reference &" + name + ';');
+			}
+			if (!Character.isValidCodePoint(c)) {
+				pos = i;
+				throw error("Invalid character reference &" + name + ';');
+			}
+		} else {
+			pos = i;
+			throw error("Entity reference &" + name + "; is not supported; only the predefined entities are");
+		}
+		reserve(n + 2);
+		n += Character.toChars(c, chars, n);
+		decoded = n;
+		return end + 1;
+	}
+
+	private void reserve(int n) {
+		if (n > chars.length) chars = Arrays.copyOf(chars, Math.max(chars.length * 2, n));
+	}
+
+	private void bind(String prefix, int attr) throws SAXException {
+		if (bindings == prefixes.length) {
+			prefixes = Arrays.copyOf(prefixes, bindings * 2);
+			uris = Arrays.copyOf(uris, bindings * 2);
+		}
+		prefixes[bindings] = prefix;
+		uris[bindings++] = value(attr);
+	}
+
+	/**
+	 * Finds the namespace URI bound to a prefix
+	 *
+	 * @param prefix The position of the prefix, or -1 for the default namespace
+	 */
+	private String resolve(int prefix, int length) throws SAXException {
+		for (int i = bindings - 1; i >= 0; i--) {
+			String p = prefixes[i];
+			if (prefix < 0? p.isEmpty() : matches(prefix, length, p)) return uris[i];
+		}
+		if (prefix < 0) return "";
+		if (matches(prefix, length, "xml")) return "http://www.w3.org/XML/1998/namespace";
+		throw error("Namespace prefix " + name(prefix, length) + " is not declared");
+	}
+
+	private void push(int name, int length, int declared, boolean dispatched) {
+		int offset = depth == 0? 0 : openName[depth - 1] + openLength[depth - 1];
+		if (offset + length > names.length) names = Arrays.copyOf(names, Math.max(names.length * 2, offset + length));
+		System.arraycopy(in, name, names, offset, length);
+		if (depth == openName.length) {
+			int size = depth * 2;
+			openName = Arrays.copyOf(openName, size);
+			openLength = Arrays.copyOf(openLength, size);
+			openBindings = Arrays.copyOf(openBindings, size);
+			openDispatched = Arrays.copyOf(openDispatched, size);
+		}
+		openName[depth] = offset;
+		openLength[depth] = length;
+		openBindings[depth] = declared;
+		openDispatched[depth++] = dispatched;
+	}
+
+	private byte at(int i) {
+		return in[i];
+	}
+
+	private boolean startsWith(String s) {
+		if (limit - pos < s.length()) return false;
+		return matches(pos, s.length(), s);
+	}
+
+	/**
+	 * @return true if the bytes at a position are the ASCII characters of a string
+	 */
+	private boolean matches(int i, int length, String s) {
+		if (length != s.length()) return false;
+		for (int k = 0; k < length; k++) {
+			if (at(i + k) != s.charAt(k)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the bytes at a position are an open element's name
+	 */
+	private boolean isOpen(int name, int i, int length) {
+		byte[] in = this.in, names = this.names;
+		for (int k = 0; k < length; k++) {
+			if (names[name + k] != in[i + k]) return false;
+		}
+		return true;
+	}
+
+	private String openName(int d) {
+		return new String(names, openName[d], openLength[d], StandardCharsets.UTF_8);
+	}
+
+	private boolean equal(int a, int b, int length) {
+		byte[] in = this.in;
+		for (int k = 0; k < length; k++) {
+			if (in[a + k] != in[b + k]) return false;
+		}
+		return true;
+	}
+
+	private int indexOf(char c, int from, int length) {
+		for (int i = from; i < from + length; i++) {
+			if (at(i) == c) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds a string, filling the window as needed
+	 */
+	private int find(String s, int from) throws SAXException {
+		byte first = (byte) s.charAt(0);
+		for (int i = from; ; ) {
+			i = scan(i, first);
+			if (i + s.length() <= limit) {
+				if (matches(i, s.length(), s)) return i;
+				i++;
+			} else {
+				int offset = i - pos;
+				if (!fill()) break;
+				i = pos + offset;
+			}
+		}
+		throw error("Expected '" + s + "' before the end of the document");
+	}
+
+	/**
+	 * Finds a byte, filling the window as needed
+	 *
+	 * @return The position of the byte, or the limit if it is not in the rest of the document
+	 */
+	private int until(byte b) {
+		int i = scan(pos, b);
+		while (i == limit) {
+			int offset = i - pos;
+			if (!fill()) break;
+			i = scan(pos + offset, b);
+		}
+		return i;
+	}
+
+	/**
+	 * Fills the window until it holds the whole of the start tag at the current position:
+	 * up to a '>' that is not in an attribute value, or up to a '<', which cannot be in the tag
+	 */
+	private void readTag() {
+		if (!more()) return;
+		byte quote = 0;
+		for (int i = pos + 1; ; i++) {
+			if (i == limit) {
+				int offset = i - pos;
+				if (!fill()) return;
+				i = pos + offset;
+			}
+			byte b = in[i];
+			if (b == '<') return;
+			if (quote != 0) {
+				if (b == quote) quote = 0;
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '>') {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return The position of the first byte at or after a position that ends a name, or the limit
+	 */
+	private int nameEnd(int from) {
+		byte[] in = this.in;
+		int i = from, limit = this.limit;
+		while (i < limit && !ENDS_NAME[in[i] & 0xFF]) i++;
+		return i;
+	}
+
+	/**
+	 * @return The position of the first occurrence of a byte at or after a position, or the limit
+	 */
+	private int scan(int from, byte b) {
+		byte[] in = this.in;
+		int i = from, limit = this.limit;
+		while (i < limit && in[i] != b) i++;
+		return i;
+	}
+
+	private void skipWhitespace() {
+		byte[] in = this.in;
+		int i = pos, limit = this.limit;
+		while (i < limit && isWhitespace(in[i])) i++;
+		pos = i;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+	}
+
+	private String name(int from, int length) {
+		return new String(in, from, length, StandardCharsets.UTF_8);
+	}
+
+	private SAXParseException error(String message) {
+		return error(message, null);
+	}
+
+	private SAXParseException error(Exception e) {
+		return error(e.toString(), e);
+	}
+
+	private SAXParseException error(String message, Exception e) {
+		int line = this.line, column = this.column;
+		for (int i = start, end = Math.min(pos, limit); i < end; i++) {
+			byte b = in[i];
+			if (b == '\n') {
+				line++;
+				column = 1;
+			} else if ((b & 0xC0) != 0x80) {
+				column++;
+			}
+		}
+		return new SAXParseException(message, null, null, line, column, e);
+	}
+}
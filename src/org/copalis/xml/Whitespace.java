@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2009 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.xml;
+
+/**
+ * How the parser front ends treat whitespace in a run of text,
+ * that is, all the character data between two tags.
+ * Runs that consist entirely of whitespace are ignored in every mode.
+ *
+ * @author gilesjb
+ */
+public enum Whitespace {
+	/**
+	 * Text is passed on unchanged
+	 */
+	PRESERVE,
+	
+	/**
+	 * Leading and trailing whitespace is removed, as by {@link String#trim()}
+	 */
+	TRIM,
+	
+	/**
+	 * Leading and trailing whitespace is removed,
+	 * and every other sequence of whitespace is replaced by a single space
+	 */
+	COLLAPSE;
+	
+	/**
+	 * Applies the mode to a run of text, without copying it
+	 * 
+	 * @param ch The characters, which may be rearranged
+	 * @param length The number of characters in the run
+	 * @param run Set to the text
+	 * @return false if the run is entirely whitespace
+	 */
+	boolean apply(char[] ch, int length, Dispatcher.Chars run) {
+		int start = 0, end = length;
+		while (start < end && ch[start] <= ' ') start++;
+		if (start == end) return false;
+		if (this == PRESERVE) return run.set(ch, 0, length);
+		while (ch[end - 1] <= ' ') end--;
+		if (this == TRIM) return run.set(ch, start, end - start);
+		
+		int n = 0;
+		for (int i = start; i < end; i++) {
+			char c = ch[i];
+			if (c > ' ') {
+				ch[n++] = c;
+			} else if (ch[n - 1] != ' ') {
+				ch[n++] = ' ';
+			}
+		}
+		return run.set(ch, 0, n);
+	}
+}